@@ -0,0 +1,87 @@
+// Events per second with and without batching, measured end to end over a real
+// `/events?format=binary` connection on localhost.
+// Run with `jshell -R-ea --enable-preview lvp.java bench/BatchBench.java`
+//
+// A producer sends the CALLs of a 10,000-step Turtle drawing; a reader counts the
+// events and frames arriving until it sees the final marker. The browser's cost of
+// compiling one Function per CALL frame is not part of this measurement; with batching
+// the browser compiles one Function per batch instead of one per event.
+
+import java.io.DataInputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+class BatchBench {
+    static final int port = 50_098;
+    static final String marker = "done";
+
+    // reads frames until the marker arrives, returns {events, frames, bytes}
+    static long[] receive(DataInputStream in) throws IOException {
+        long events = 0, frames = 0, bytes = 0;
+        while (true) {
+            byte[] frame = new byte[in.readInt()];
+            in.readFully(frame);
+            frames++;
+            bytes += 4 + frame.length;
+            ByteBuffer body = ByteBuffer.wrap(frame, 9, frame.length - 9); // after type and id
+            if (frame[0] != SSEType.BATCH.ordinal()) {
+                events++;
+                if (new String(frame, 9, frame.length - 9, StandardCharsets.UTF_8).equals(marker))
+                    return new long[] { events, frames, bytes };
+                continue;
+            }
+            while (body.hasRemaining()) {
+                byte type = body.get();
+                byte[] data = new byte[body.getInt()];
+                body.get(data);
+                events++;
+                if (type == SSEType.WRITE.ordinal() && new String(data, StandardCharsets.UTF_8).equals(marker))
+                    return new long[] { events, frames, bytes };
+            }
+        }
+    }
+
+    static void run(String name, LiveView view, Runnable producer) throws Exception {
+        HttpResponse<InputStream> response = HttpClient.newHttpClient().send(
+            HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/events?format=binary")).build(),
+            HttpResponse.BodyHandlers.ofInputStream());
+        while (view.sseClientConnections.isEmpty())
+            Thread.sleep(10);
+        var result = java.util.concurrent.CompletableFuture.supplyAsync(() -> {
+            try {
+                return receive(new DataInputStream(response.body()));
+            } catch (IOException e) {
+                throw new java.io.UncheckedIOException(e);
+            }
+        });
+        long time = System.nanoTime();
+        producer.run();
+        Clerk.write(view, marker);
+        view.flushBatch();
+        long[] received = result.get();
+        double seconds = (System.nanoTime() - time) / 1e9;
+        System.out.printf("%-14s %9.0f events/s %7d frames %9d bytes%n",
+            name, received[0] / seconds, received[1], received[2]);
+        view.sseClientConnections.forEach(SSEClient::close);
+        response.body().close();
+    }
+
+    static void fractal(LiveView view) {
+        for (int i = 0; i < 10_000; i++) {
+            Clerk.call(view, "turtle1234.forward(" + (i % 50) + ");");
+            Clerk.call(view, "turtle1234.left(" + (i % 7 * 15) + ");");
+        }
+    }
+}
+
+LiveView benchView = LiveView.onPort(BatchBench.port).setEventLog(0, 0); // no replay of earlier runs
+for (int round = 0; round < 2; round++) { // the first round warms up
+    benchView.setAutoBatching(1 << 20, 0);
+    BatchBench.run("unbatched", benchView, () -> BatchBench.fractal(benchView));
+    BatchBench.run("Clerk.batch", benchView, () -> Clerk.batch(benchView, () -> BatchBench.fractal(benchView)));
+    benchView.setAutoBatching(64 * 1024, 10);
+    BatchBench.run("auto (64K/10ms)", benchView, () -> BatchBench.fractal(benchView));
+}
+benchView.stop();
@@ -0,0 +1,60 @@
+// Per-event cost of `sendServerEvent` depending on the number of connected clients.
+// Run with `jshell -R-ea --enable-preview lvp.java bench/BroadcastBench.java`
+//
+// Clients are simulated by SSEClients writing into a null stream. Time and the bytes
+// allocated on the producer thread are measured per event. Since every event is framed
+// once and shared by all client queues, both numbers should stay flat as the number of
+// clients grows. For comparison, `legacy` frames the event once per client, as
+// `sendServerEvent` used to do.
+
+import java.lang.management.ManagementFactory;
+
+class BroadcastBench {
+    static final com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    static void legacy(LiveView view, SSEType type, String data) {
+        for (SSEClient connection : view.sseClientConnections) {
+            byte[] binaryData = data.getBytes(StandardCharsets.UTF_8);
+            String base64Data = Base64.getEncoder().encodeToString(binaryData);
+            String message = "data: " + type + ":" + base64Data + "\n\n";
+            message.getBytes();
+        }
+    }
+
+    static void run(int clients, int events, String data) {
+        LiveView view = LiveView.onPort(50_099).setOverflowPolicy(OverflowPolicy.DROP_OLDEST, 64);
+        view.sseClientConnections.forEach(SSEClient::close);
+        view.sseClientConnections.clear();
+        for (int i = 0; i < clients; i++)
+            view.sseClientConnections.add(
+                new SSEClient(OutputStream.nullOutputStream(), view.queueCapacity, view.sseClientConnections::remove));
+
+        for (int i = 0; i < events; i++) { // warm-up
+            view.sendServerEvent(SSEType.CALL, data);
+            legacy(view, SSEType.CALL, data);
+        }
+
+        long bytes = threads.getCurrentThreadAllocatedBytes();
+        long time = System.nanoTime();
+        for (int i = 0; i < events; i++)
+            view.sendServerEvent(SSEType.CALL, data);
+        long sendTime = (System.nanoTime() - time) / events;
+        long sendBytes = (threads.getCurrentThreadAllocatedBytes() - bytes) / events;
+
+        bytes = threads.getCurrentThreadAllocatedBytes();
+        time = System.nanoTime();
+        for (int i = 0; i < events; i++)
+            legacy(view, SSEType.CALL, data);
+        long legacyTime = (System.nanoTime() - time) / events;
+        long legacyBytes = (threads.getCurrentThreadAllocatedBytes() - bytes) / events;
+
+        System.out.printf("%4d clients | sendServerEvent %8d ns %9d B/event | legacy %9d ns %10d B/event%n",
+            clients, sendTime, sendBytes, legacyTime, legacyBytes);
+    }
+}
+
+String payload = "turtle1234.forward(10.0);".repeat(40); // ~1 KB, a typical CALL
+for (int clients : new int[] { 1, 10, 40, 100 })
+    BroadcastBench.run(clients, 5_000, payload);
+LiveView.onPort(50_099).stop();
@@ -0,0 +1,102 @@
+// Bytes on the wire of `/events` with and without compression, for the Doc and the Game
+// workloads. Run with `jshell -R-ea --enable-preview lvp.java bench/CompressionBench.java`
+//
+// Readers connect to the default view like browsers: one per format (SSE or binary)
+// and encoding (none, gzip, deflate). Each counts the bytes it receives and checks that
+// they decompress to what the uncompressed reader of its format got. The Doc workload
+// is Doc.java, the Markdown documentation of the WebGL game; the Game workload is the
+// first 3 seconds of a Game once the browser reports its textures as loaded.
+
+import java.io.FilterInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+class CompressionBench {
+    static final HttpClient http = HttpClient.newHttpClient();
+
+    static class Reader {
+        final String format, encoding;
+        final LongAdder wire = new LongAdder(), decoded = new LongAdder();
+
+        Reader(boolean binary, String encoding) throws Exception {
+            format = binary ? "binary" : "SSE";
+            this.encoding = encoding;
+            HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://localhost:" + LiveView.getDefaultPort()
+                    + "/events?client=" + format + "-" + encoding + (binary ? "&format=binary" : "")));
+            if (!encoding.equals("identity"))
+                request.header("Accept-Encoding", encoding);
+            HttpResponse<InputStream> response = http.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+            assert encoding.equals(response.headers().firstValue("Content-Encoding").orElse("identity"));
+            InputStream counted = new FilterInputStream(response.body()) {
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0)
+                        wire.add(n);
+                    return n;
+                }
+            };
+            InputStream in = switch (encoding) {
+                case "gzip" -> new GZIPInputStream(counted);
+                case "deflate" -> new InflaterInputStream(counted);
+                default -> counted;
+            };
+            Thread.ofPlatform().daemon().start(() -> {
+                byte[] buffer = new byte[8192];
+                try {
+                    for (int n; (n = in.read(buffer)) > 0;)
+                        decoded.add(n);
+                } catch (IOException e) {
+                    // closed at the end
+                }
+            });
+        }
+    }
+
+    static List<Reader> readers = new ArrayList<>();
+    static Map<Reader, long[]> before = new HashMap<>();
+
+    static void connect() throws Exception {
+        for (boolean binary : new boolean[] { false, true })
+            for (String encoding : new String[] { "identity", "gzip", "deflate" })
+                readers.add(new Reader(binary, encoding));
+        while (Clerk.view().sseClientConnections.size() < readers.size())
+            Thread.sleep(10);
+        mark();
+    }
+
+    static void mark() {
+        readers.forEach(r -> before.put(r, new long[] { r.wire.sum(), r.decoded.sum() }));
+    }
+
+    // waits until nothing arrives for half a second
+    static void settle() throws InterruptedException {
+        long total = -1;
+        while (total != (total = readers.stream().mapToLong(r -> r.wire.sum()).sum()))
+            Thread.sleep(500);
+    }
+
+    static void report(String workload) {
+        for (Reader r : readers) {
+            long wire = r.wire.sum() - before.get(r)[0], decoded = r.decoded.sum() - before.get(r)[1];
+            long plain = readers.stream().filter(p -> p.format.equals(r.format) && p.encoding.equals("identity"))
+                    .mapToLong(p -> p.decoded.sum() - before.get(p)[1]).sum();
+            System.out.printf("%-4s | %-6s | %-8s | %10d bytes on the wire | %5.1f %% of uncompressed%s%n",
+                    workload, r.format, r.encoding, wire, 100.0 * wire / Math.max(1, plain),
+                    r.encoding.equals("identity") || Math.abs(decoded - plain) < 64 * 1024 ? "" : " (stream lagging)");
+        }
+        mark();
+    }
+}
+
+CompressionBench.connect();
+/open Doc.java
+CompressionBench.settle();
+CompressionBench.report("Doc");
+Clerk.clear();
+Game game = new Game(view);
+CompressionBench.settle();
+CompressionBench.http.sendAsync(HttpRequest.newBuilder(URI.create("http://localhost:" + LiveView.getDefaultPort() + "/texturesload"))
+        .POST(HttpRequest.BodyPublishers.ofString("")).build(), HttpResponse.BodyHandlers.discarding()); // runs the game loop, never answers
+Thread.sleep(3_000);
+CompressionBench.report("Game");
+view.stop();
@@ -0,0 +1,85 @@
+// Throughput, end-to-end latency and memory as the number of browsers grows, simulated
+// by headless clients (skills/LiveViewClient) on localhost.
+// Run with `jshell -R-ea --enable-preview lvp.java bench/LoadGenerator.java`
+//
+// Every round opens a fresh channel and connects its clients, half of them over the
+// binary stream and half over SSE. The clients load a script, then the producer sends
+// CALLs stamped with System.nanoTime(), at `rate` events per second or as fast as the
+// clients take them (rate 0). Latency runs from `sendServerEvent` to the client's
+// listener, throughput counts the events delivered to all clients per second. Clients
+// and server share the JVM, so the heap covers both; it is measured after a GC with
+// all clients connected.
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.CountDownLatch;
+
+class LoadGenerator {
+    static final int port = 50_097;
+    static final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    static long heapUsed() {
+        System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    static void run(int clients, int events, int rate, String payload) throws Exception {
+        LiveView view = LiveView.onPort(port, "load" + clients).setEventLog(0, 0);
+        long heapBefore = heapUsed();
+        long[][] latencies = new long[clients][events];
+        int[] received = new int[clients];
+        CountDownLatch done = new CountDownLatch(clients);
+        List<LiveViewClient> connections = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            int client = i;
+            connections.add(new LiveViewClient(port, view.channel, i % 2 == 0, event -> {
+                if (event.type() != SSEType.CALL)
+                    return;
+                String data = event.data();
+                latencies[client][received[client]] = System.nanoTime() - Long.parseLong(data.substring(2, data.indexOf(';')));
+                if (++received[client] == events)
+                    done.countDown();
+            }));
+        }
+        for (LiveViewClient connection : connections)
+            connection.connected.join();
+        while (view.sseClientConnections.size() < clients) // registered by the server
+            Thread.sleep(10);
+        long heap = heapUsed();
+
+        long time = System.nanoTime();
+        Clerk.load(view, "bench/load" + clients + ".js").get(30, TimeUnit.SECONDS);
+        long loadTime = System.nanoTime() - time;
+
+        time = System.nanoTime();
+        for (int i = 0; i < events; i++) {
+            if (rate > 0) // paced, without drifting
+                while (System.nanoTime() - time < (long) i * 1_000_000_000 / rate)
+                    Thread.onSpinWait();
+            view.sendServerEvent(SSEType.CALL, "//" + System.nanoTime() + ";" + payload);
+        }
+        boolean complete = done.await(60, TimeUnit.SECONDS);
+        long elapsed = System.nanoTime() - time;
+
+        long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).filter(l -> l > 0).sorted().toArray();
+        System.out.printf("%4d clients | %9.0f events/s | latency p50 %7.1f ms p99 %7.1f ms max %7.1f ms | LOAD %6.1f ms | heap %6.1f MB (%+6.1f KB/client)%s%n",
+                clients, (double) all.length / elapsed * 1e9, percentile(all, 0.5) / 1e6, percentile(all, 0.99) / 1e6,
+                all.length == 0 ? 0 : all[all.length - 1] / 1e6, loadTime / 1e6, heap / 1e6,
+                (heap - heapBefore) / 1e3 / clients, complete ? "" : " INCOMPLETE");
+
+        connections.forEach(LiveViewClient::close);
+        view.stop();
+    }
+
+    static double percentile(long[] sorted, double q) {
+        return sorted.length == 0 ? 0 : sorted[Math.min(sorted.length - 1, (int) (q * sorted.length))];
+    }
+}
+
+String payload = "turtle1234.forward(10.0);".repeat(40); // ~1 KB, a typical CALL
+LoadGenerator.run(10, 5_000, 0, payload); // warm-up
+for (int clients : new int[] { 1, 10, 100, 500 })
+    LoadGenerator.run(clients, 2_000, 0, payload);
+for (int clients : new int[] { 100, 500 })
+    LoadGenerator.run(clients, 2_000, 1_000, payload);
+LiveView.onPort(50_097).stop();
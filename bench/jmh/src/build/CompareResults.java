@@ -0,0 +1,97 @@
+// Compares two JMH result files written with `-rf csv`, typically of two releases:
+//
+//   java CompareResults.java <old.csv> <new.csv> [threshold in percent, default 10]
+//
+// Prints the change of every benchmark and parameter combination found in both files
+// and flags it when the new score is worse by more than the threshold and the scores'
+// error intervals do not overlap. Exits with 1 if anything regressed, so a build can fail.
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+class CompareResults {
+    record Result(String mode, double score, double error, String unit) {
+        // lower is better for the time modes, higher for throughput
+        boolean higherIsBetter() {
+            return mode.equals("thrpt");
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: java CompareResults.java <old.csv> <new.csv> [threshold in percent]");
+            System.exit(2);
+        }
+        Map<String, Result> before = read(Path.of(args[0]));
+        Map<String, Result> after = read(Path.of(args[1]));
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) / 100 : 0.10;
+
+        int regressions = 0;
+        for (Map.Entry<String, Result> entry : after.entrySet()) {
+            Result old = before.get(entry.getKey()), now = entry.getValue();
+            if (old == null || !old.unit().equals(now.unit())) {
+                System.out.printf("%-60s %14s %14.3f %-10s%n", entry.getKey(), "new", now.score(), now.unit());
+                continue;
+            }
+            double change = (now.score() - old.score()) / old.score();
+            double worse = now.higherIsBetter() ? -change : change;
+            boolean significant = Math.abs(now.score() - old.score()) > old.error() + now.error();
+            boolean regressed = worse > threshold && significant;
+            if (regressed)
+                regressions++;
+            System.out.printf("%-60s %14.3f %14.3f %-10s %+7.1f%%%s%n", entry.getKey(), old.score(), now.score(),
+                    now.unit(), 100 * change, regressed ? "  REGRESSION" : worse < -threshold && significant ? "  improved" : "");
+        }
+        for (String key : before.keySet())
+            if (!after.containsKey(key))
+                System.out.printf("%-60s %14s%n", key, "removed");
+        System.out.println(regressions + " regression(s) beyond " + Math.round(threshold * 100) + "%");
+        System.exit(regressions > 0 ? 1 : 0);
+    }
+
+    // benchmark name with its parameters, e.g. `lvp.EventBench.sendServerEvent clients=10 size=32`
+    static Map<String, Result> read(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file);
+        List<String> header = fields(lines.get(0));
+        Map<String, Result> results = new LinkedHashMap<>();
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isBlank())
+                continue;
+            List<String> row = fields(line);
+            StringBuilder key = new StringBuilder(row.get(header.indexOf("Benchmark")));
+            for (int i = 0; i < header.size(); i++)
+                if (header.get(i).startsWith("Param: ") && !row.get(i).isEmpty())
+                    key.append(' ').append(header.get(i).substring("Param: ".length())).append('=').append(row.get(i));
+            results.put(key.toString(), new Result(row.get(header.indexOf("Mode")), number(row.get(header.indexOf("Score"))),
+                    number(row.get(header.indexOf("Score Error (99.9%)"))), row.get(header.indexOf("Unit"))));
+        }
+        return results;
+    }
+
+    // JMH quotes every text field; numbers may use the decimal comma of the locale
+    static List<String> fields(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (char c : line.toCharArray()) {
+            if (c == '"')
+                quoted = !quoted;
+            else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else
+                field.append(c);
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    static double number(String field) {
+        return field.isEmpty() || field.equals("NaN") ? 0 : Double.parseDouble(field.replace(',', '.'));
+    }
+}
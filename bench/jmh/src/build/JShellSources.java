@@ -0,0 +1,70 @@
+// Turns the JShell scripts into Java sources that javac accepts, so the JMH module can
+// compile and benchmark them. Run as a source-file program (see pom.xml):
+//
+//   java JShellSources.java <root script> <output directory> <package>
+//
+// Starting at the root script (lvp.java), every script named by an `/open` command is
+// included. Each script becomes `<package>/<file name>` with a package declaration and
+// the imports of all scripts, since JShell shares imports between snippets. JShell
+// commands and top-level variables (like `view` in lvp.java) are dropped; the scripts
+// hold nothing else at the top level but declarations.
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+class JShellSources {
+    static final Pattern command = Pattern.compile("^/\\w+.*");
+    static final Pattern variable = Pattern.compile("^[A-Z][\\w<>,. ]*\\s+\\w+\\s*=.*;\\s*$");
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("usage: java JShellSources.java <root script> <output directory> <package>");
+            System.exit(2);
+        }
+        Path root = Path.of(args[0]).toAbsolutePath().normalize();
+        Path output = Path.of(args[1]).resolve(args[2].replace('.', '/'));
+        Set<String> imports = new LinkedHashSet<>();
+        Map<Path, List<String>> scripts = new LinkedHashMap<>();
+        collect(root, root.getParent(), imports, scripts);
+
+        Files.createDirectories(output);
+        for (Map.Entry<Path, List<String>> script : scripts.entrySet()) {
+            StringBuilder source = new StringBuilder("// generated from ")
+                    .append(root.getParent().relativize(script.getKey())).append(", do not edit\n")
+                    .append("package ").append(args[2]).append(";\n\n");
+            imports.forEach(line -> source.append(line).append('\n'));
+            script.getValue().forEach(line -> source.append(line).append('\n'));
+            Files.writeString(output.resolve(script.getKey().getFileName()), source);
+        }
+        System.out.println(scripts.size() + " scripts extracted to " + output);
+    }
+
+    // scripts in the order JShell opens them, `/open` paths are relative to the root's directory
+    static void collect(Path script, Path base, Set<String> imports, Map<Path, List<String>> scripts) throws IOException {
+        if (scripts.containsKey(script))
+            return;
+        List<String> body = new ArrayList<>();
+        scripts.put(script, body);
+        List<Path> opened = new ArrayList<>();
+        for (String line : Files.readAllLines(script)) {
+            if (line.startsWith("import ")) {
+                imports.add(line.strip());
+            } else if (command.matcher(line).matches()) {
+                if (line.startsWith("/open "))
+                    opened.add(base.resolve(line.substring("/open ".length()).strip()).normalize());
+            } else if (!variable.matcher(line).matches()) {
+                body.add(line);
+            }
+        }
+        for (Path next : opened)
+            collect(next, base, imports, scripts);
+    }
+}
@@ -0,0 +1,71 @@
+package lvp;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// Framing and broadcasting of events. Clients are SSEClients writing into a null stream,
+// as in bench/BroadcastBench.java; the event log is off so memory stays flat.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EventBench {
+    @Param({"0", "10"})
+    public int clients;
+
+    @Param({"32", "4096"})
+    public int size;
+
+    LiveView view;
+    String data;
+    ServerEvent[] events;
+
+    @Setup
+    public void setUp() {
+        view = LiveView.onPort(50_199).setOverflowPolicy(OverflowPolicy.DROP_OLDEST, 64).setEventLog(0, 0);
+        for (int i = 0; i < clients; i++)
+            view.sseClientConnections.add(new SSEClient(OutputStream.nullOutputStream(), view.queueCapacity, view::removeClient));
+        data = "turtle.forward(10).left(90);".repeat(size / 28 + 1).substring(0, size);
+        events = new ServerEvent[16];
+        for (int i = 0; i < events.length; i++)
+            events[i] = new ServerEvent(SSEType.CALL, data);
+    }
+
+    @TearDown
+    public void tearDown() {
+        view.stop();
+    }
+
+    @Benchmark
+    public void sendServerEvent() {
+        view.sendServerEvent(SSEType.CALL, data);
+    }
+
+    // a fresh event each time, frames are cached per event
+    @Benchmark
+    public byte[] sseFrame() {
+        return new ServerEvent(SSEType.CALL, data).withId(42).sseFrame();
+    }
+
+    @Benchmark
+    public byte[] binaryFrame() {
+        return new ServerEvent(SSEType.CALL, data).withId(42).binaryFrame();
+    }
+
+    @Benchmark
+    public byte[] webSocketFrame() {
+        return new ServerEvent(SSEType.CALL, data).withId(42).webSocketFrame();
+    }
+
+    @Benchmark
+    public byte[] batch() {
+        EventBatch batch = new EventBatch();
+        for (ServerEvent event : events)
+            batch.add(event);
+        return batch.toEvent().body;
+    }
+}
@@ -0,0 +1,77 @@
+package lvp;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// Terrain generation and chunk loading of the WebGL game. The game runs on its own port
+// without browsers and with the event log off, so `load` measures the encoding of the
+// visible blocks and handing the DATA event over.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GameBench {
+    static final long hash = ((long) 1 << 32) | 2; // chunk (1, 2)
+
+    LiveView view;
+    Game game;
+    Game.Chunk chunk;
+    Object terrainNoise;
+    MethodHandle noise; // (Object, double, double, double)double
+    double x;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() throws ReflectiveOperationException {
+        view = LiveView.onPort(50_198).setEventLog(0, 0);
+        game = new Game(view);
+
+        // Noise is private to Game
+        Field field = Game.class.getDeclaredField("terrainNoise");
+        field.setAccessible(true);
+        terrainNoise = field.get(game);
+        noise = MethodHandles.privateLookupIn(terrainNoise.getClass(), MethodHandles.lookup())
+                .findVirtual(terrainNoise.getClass(), "noise", MethodType.methodType(double.class, double.class, double.class, double.class))
+                .asType(MethodType.methodType(double.class, Object.class, double.class, double.class, double.class));
+
+        // the chunk and its neighbours, which decide the visibility of its border blocks
+        field = Game.class.getDeclaredField("chunks");
+        field.setAccessible(true);
+        Map<Long, Game.Chunk> chunks = (Map<Long, Game.Chunk>) field.get(game);
+        for (int dx = -1; dx <= 1; dx++)
+            for (int dz = -1; dz <= 1; dz++) {
+                long neighbour = ((long) (1 + dx) << 32) | ((2 + dz) & 0xFFFFFFFFL);
+                chunks.put(neighbour, game.new Chunk(neighbour));
+            }
+        chunk = chunks.get(hash);
+    }
+
+    @TearDown
+    public void tearDown() {
+        view.stop();
+    }
+
+    @Benchmark
+    public Object newChunk() {
+        return game.new Chunk(hash);
+    }
+
+    @Benchmark
+    public double noise() throws Throwable {
+        x += 0.05;
+        return (double) noise.invokeExact(terrainNoise, x, 0.0, x * 0.5);
+    }
+
+    @Benchmark
+    public void load() {
+        chunk.load();
+    }
+}
@@ -0,0 +1,56 @@
+package lvp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// NodeGenerator.inspect on a binary tree of `nodes` objects whose nodes point back to
+// their parents, so every node is also met again as an already inspected object.
+// `dot` adds the dot source generated from the inspected tree.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InspectorBench {
+    public static class Node {
+        int value;
+        String name;
+        Node parent, left, right;
+
+        Node(int value, Node parent) {
+            this.value = value;
+            this.name = "node" + value;
+            this.parent = parent;
+        }
+    }
+
+    @Param({"100", "1000"})
+    public int nodes;
+
+    Node root;
+
+    @Setup
+    public void setUp() {
+        Node[] tree = new Node[nodes];
+        for (int i = 0; i < nodes; i++) {
+            tree[i] = new Node(i, i == 0 ? null : tree[(i - 1) / 2]);
+            if (i > 0 && i % 2 == 1)
+                tree[(i - 1) / 2].left = tree[i];
+            else if (i > 0)
+                tree[(i - 1) / 2].right = tree[i];
+        }
+        root = tree[0];
+    }
+
+    @Benchmark
+    public Object inspect() {
+        return NodeGenerator.inspect(root, "root");
+    }
+
+    @Benchmark
+    public String dot() {
+        return NodeGenerator.inspect(root, "root").toString();
+    }
+}
@@ -0,0 +1,30 @@
+package lvp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// Parsing the mouse deltas of the WebGL game: in place from the request body versus
+// the String and regular expression the handler used before.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RequestBodyBench {
+    byte[] body = "{\"mouseMoveX\":-13,\"mouseMoveY\":4.5}".getBytes(StandardCharsets.UTF_8);
+
+    @Benchmark
+    public double nextDouble() {
+        RequestBody request = new RequestBody(body);
+        return request.nextDouble() + request.nextDouble();
+    }
+
+    @Benchmark
+    public double regex() {
+        String[] parts = new String(body, StandardCharsets.UTF_8).replaceAll("[^0-9.,-]", "").split(",");
+        return Double.parseDouble(parts[0]) + Double.parseDouble(parts[1]);
+    }
+}
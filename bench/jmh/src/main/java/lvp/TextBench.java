@@ -0,0 +1,75 @@
+package lvp;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// Text.fillOut on a template with `placeholders` keys, Text.cutOut on a source file of
+// `lines` lines with a labeled snippet in its middle.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextBench {
+    @State(Scope.Benchmark)
+    public static class Template {
+        @Param({"10", "1000"})
+        public int placeholders;
+
+        String template;
+        Map<String, Object> replacements = new HashMap<>();
+
+        @Setup
+        public void setUp() {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < placeholders; i++) {
+                text.append("<p>${key").append(i).append("}</p>\n");
+                replacements.put("key" + i, i);
+            }
+            template = text.toString();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Source {
+        @Param({"100", "10000"})
+        public int lines;
+
+        Path file;
+
+        @Setup
+        public void setUp() throws IOException {
+            StringBuilder source = new StringBuilder();
+            for (int i = 0; i < lines; i++) {
+                if (i == lines / 2)
+                    source.append("// start\n");
+                source.append("    int value").append(i).append(" = ").append(i).append(";\n");
+                if (i == lines / 2 + 10)
+                    source.append("// end\n");
+            }
+            file = Files.createTempFile("TextBench", ".java");
+            Files.writeString(file, source);
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Benchmark
+    public String fillOut(Template template) {
+        return Text.fillOut(template.template, template.replacements);
+    }
+
+    @Benchmark
+    public String cutOut(Source source) {
+        return Text.cutOut(source.file, "// start", "// end");
+    }
+}
@@ -0,0 +1,43 @@
+package lvp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// The vector math of the WebGL game, called for every camera and player update.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VectorBench {
+    double[] a = {1.5, -2.0, 3.25};
+    double[] b = {-0.5, 4.0, 2.0};
+    double k = 0.75;
+
+    @Benchmark
+    public double[] vecAddition() {
+        return VectorUtils.vecAddition(a, b);
+    }
+
+    @Benchmark
+    public double[] crossProduct() {
+        return VectorUtils.crossProduct(a, b);
+    }
+
+    @Benchmark
+    public double[] vecMultiplication() {
+        return VectorUtils.vecMultiplication(a, k);
+    }
+
+    @Benchmark
+    public double vecLength() {
+        return VectorUtils.vecLength(a);
+    }
+
+    @Benchmark
+    public double[] normalize() {
+        return VectorUtils.normalize(a);
+    }
+}
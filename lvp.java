@@ -1,167 +1,2993 @@
-import java.io.FileInputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.BindException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Base64;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
 import java.util.Random;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
+import com.sun.net.httpserver.Authenticator;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
 import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpPrincipal;
 import com.sun.net.httpserver.HttpServer;
 
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
-import java.util.concurrent.locks.Condition;
 
-// To run this code type `jshell -R-ea --enable-preview`
+// To run this code type `jshell -R-ea --enable-preview`
+
+enum SSEType { // the order is mirrored by `actions` in web/script.js
+    WRITE, CALL, SCRIPT, LOAD, CLEAR, RELEASE, DATA, BATCH, PATCH, DEFINE, COMMAND, FRAGMENT, ACK;
+}
+
+// element types of `SSEType.DATA` payloads, mirrored by `typedArrays` in web/script.js
+enum TypedArray {
+    UINT8, INT32, FLOAT32, FLOAT64;
+}
+
+// What a client's outbound queue does when it is full
+enum OverflowPolicy {
+    BLOCK,       // the producer waits until the client catches up
+    DROP_OLDEST, // the oldest queued message is discarded
+    DISCONNECT;  // the client is dropped, the browser reconnects on its own
+}
+
+// An event as it goes over the wire. It is framed exactly once per format, no
+// matter how many clients are connected; every client writes the very same bytes.
+//
+// Formats:
+//   SSE        `id: <id>\ndata: <TYPE>:<base64 body>\n\n`
+//   binary     `[u32 length][u8 type][u64 id][body]` on `/events?format=binary`
+//   WebSocket  binary message `[u8 type][u64 id][body]`
+// where `type` is the ordinal of the SSEType, `id` the position in the EventLog
+// (0 and no `id:` line if not logged) and `body` is UTF-8 text, or for
+// `SSEType.DATA` `[u8 TypedArray][u16 length][function name][elements]` and for
+// `SSEType.COMMAND` `[u16 opcode][argument]...` (see `command`).
+//
+// Lanes: an `interactive` event (a camera update, say) overtakes the events queued
+// for a client, and a body beyond `fragmentSize` goes out as FRAGMENTs
+// `[u8 type][u32 total length][u32 offset][part]`, between which interactive events are
+// written; the last fragment carries the id. A client reconnecting in the middle gets
+// the event again from offset 0 and starts over. Interactive events go out without
+// their id: a client resuming after it would skip the events it overtook. Instead they
+// are replayed in order after a reconnect, so they should be idempotent.
+final class ServerEvent {
+    final SSEType type;
+    final byte[] body; // must not be modified, it is shared by all client queues
+    final long id; // position in the event log, 0 if not logged
+    final boolean interactive;
+    final long created; // System.nanoTime() at the call site, see Tracer
+    static final int fragmentSize = 64 * 1024;
+    private volatile byte[] sseFrame, binaryFrame, webSocketFrame; // framed on first use
+    private volatile List<ServerEvent> fragments;
+    private volatile ServerEvent unnumbered;
+
+    ServerEvent(SSEType type, byte[] body, long id, boolean interactive, long created) {
+        this.type = type;
+        this.body = body;
+        this.id = id;
+        this.interactive = interactive;
+        this.created = created;
+    }
+
+    ServerEvent(SSEType type, byte[] body, long id, boolean interactive) {
+        this(type, body, id, interactive, System.nanoTime());
+    }
+
+    ServerEvent(SSEType type, byte[] body, long id) {
+        this(type, body, id, false);
+    }
+
+    ServerEvent(SSEType type, byte[] body) {
+        this(type, body, 0);
+    }
+
+    ServerEvent(SSEType type, String data) {
+        this(type, data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // `data` has to hold the elements in the browser's byte order (little-endian)
+    static ServerEvent data(String function, TypedArray arrayType, ByteBuffer data) {
+        byte[] name = function.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer body = ByteBuffer.allocate(3 + name.length + data.remaining());
+        body.put((byte) arrayType.ordinal()).putShort((short) name.length).put(name).put(data.duplicate());
+        return new ServerEvent(SSEType.DATA, body.array());
+    }
+
+    // Arguments of a COMMAND, little-endian: `[u8 tag][value]` with the tags
+    // 0 null, 1 boolean `[u8]`, 2 int `[i32]`, 3 double `[f64]`, 4 string `[u32 length][UTF-8]`.
+    // Other numbers go as int or double, anything else as its `toString()`.
+    static ServerEvent command(int opcode, Object... args) {
+        byte[][] text = new byte[args.length][];
+        int size = 2;
+        for (int i = 0; i < args.length; i++)
+            size += 1 + switch (args[i]) {
+                case null -> 0;
+                case Boolean b -> 1;
+                case Integer n -> 4;
+                case Short n -> 4;
+                case Byte n -> 4;
+                case Number n -> 8;
+                default -> 4 + (text[i] = args[i].toString().getBytes(StandardCharsets.UTF_8)).length;
+            };
+        ByteBuffer body = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN).putShort((short) opcode);
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case null -> body.put((byte) 0);
+                case Boolean b -> body.put((byte) 1).put((byte) (b ? 1 : 0));
+                case Integer n -> body.put((byte) 2).putInt(n);
+                case Short n -> body.put((byte) 2).putInt(n);
+                case Byte n -> body.put((byte) 2).putInt(n);
+                case Number n -> body.put((byte) 3).putDouble(n.doubleValue());
+                default -> body.put((byte) 4).putInt(text[i].length).put(text[i]);
+            }
+        }
+        return new ServerEvent(SSEType.COMMAND, body.array());
+    }
+
+    // sent on an idle connection so a dead peer shows up as a failing write; browsers ignore
+    // an SSE comment, an empty binary frame and (answering it) a WebSocket ping
+    static final byte[] sseHeartbeat = ":\n\n".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] binaryHeartbeat = new byte[4];
+    static final byte[] webSocketHeartbeat = { (byte) 0x89, 0 };
+
+    String data() {
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    ServerEvent withId(long id) {
+        return new ServerEvent(type, body, id, interactive, created);
+    }
+
+    // the same event on the interactive lane
+    ServerEvent interactive() {
+        return interactive ? this : new ServerEvent(type, body, id, true, created);
+    }
+
+    // what an SSEClient writes for an interactive event, framed once for all of them
+    ServerEvent unnumbered() {
+        ServerEvent event = unnumbered;
+        if (event == null)
+            unnumbered = event = id == 0 ? this : new ServerEvent(type, body, 0, interactive, created);
+        return event;
+    }
+
+    boolean fragmented() {
+        return body.length > fragmentSize && !interactive;
+    }
+
+    // shared by all clients like the frames, so each fragment is framed once, too
+    List<ServerEvent> fragments() {
+        List<ServerEvent> list = fragments;
+        if (list == null) {
+            list = new ArrayList<>();
+            for (int offset = 0; offset < body.length; offset += fragmentSize) {
+                int length = Math.min(fragmentSize, body.length - offset);
+                byte[] fragment = ByteBuffer.allocate(9 + length).put((byte) type.ordinal()).putInt(body.length)
+                        .putInt(offset).put(body, offset, length).array();
+                list.add(new ServerEvent(SSEType.FRAGMENT, fragment, offset + length == body.length ? id : 0));
+            }
+            fragments = list;
+        }
+        return list;
+    }
+
+    byte[] sseFrame() {
+        byte[] frame = sseFrame;
+        if (frame == null) {
+            byte[] prefix = ((id > 0 ? "id: " + id + "\n" : "") + "data: " + type + ":").getBytes(StandardCharsets.US_ASCII);
+            byte[] base64 = Base64.getEncoder().encode(body);
+            frame = new byte[prefix.length + base64.length + 2];
+            System.arraycopy(prefix, 0, frame, 0, prefix.length);
+            System.arraycopy(base64, 0, frame, prefix.length, base64.length);
+            frame[frame.length - 2] = '\n';
+            frame[frame.length - 1] = '\n';
+            sseFrame = frame;
+        }
+        return frame;
+    }
+
+    byte[] binaryFrame() {
+        byte[] frame = binaryFrame;
+        if (frame == null) {
+            frame = ByteBuffer.allocate(13 + body.length)
+                    .putInt(9 + body.length).put((byte) type.ordinal()).putLong(id).put(body).array();
+            binaryFrame = frame;
+        }
+        return frame;
+    }
+
+    // unmasked server-to-client binary frame holding `[type][id][body]`
+    byte[] webSocketFrame() {
+        byte[] frame = webSocketFrame;
+        if (frame == null) {
+            int length = 9 + body.length;
+            int header = length < 126 ? 2 : length <= 0xFFFF ? 4 : 10;
+            frame = new byte[header + length];
+            frame[0] = (byte) 0x82; // FIN + binary
+            if (header == 2) {
+                frame[1] = (byte) length;
+            } else if (header == 4) {
+                frame[1] = 126;
+                frame[2] = (byte) (length >> 8);
+                frame[3] = (byte) length;
+            } else {
+                frame[1] = 127;
+                for (int i = 0; i < 8; i++)
+                    frame[2 + i] = (byte) ((long) length >> (56 - 8 * i));
+            }
+            frame[header] = (byte) type.ordinal();
+            for (int i = 0; i < 8; i++)
+                frame[header + 1 + i] = (byte) (id >> (56 - 8 * i));
+            System.arraycopy(body, 0, frame, header + 9, body.length);
+            webSocketFrame = frame;
+        }
+        return frame;
+    }
+}
+
+// Collects events into the body of a single BATCH event, `[u8 type][u32 length][body]...`,
+// which the browser replays in order. Runs of CALLs are compiled into one Function there.
+final class EventBatch {
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private ServerEvent first = null;
+    private int count = 0;
+
+    static boolean accepts(SSEType type) {
+        return switch (type) {
+            case WRITE, CALL, SCRIPT, DATA, PATCH, COMMAND -> true;
+            default -> false; // LOAD waits for the browser, DEFINE stays in the log, CLEAR, RELEASE, ACK and BATCH go out directly
+        };
+    }
+
+    void add(ServerEvent event) {
+        if (count++ == 0)
+            first = event;
+        body.write(event.type.ordinal());
+        body.writeBytes(ByteBuffer.allocate(4).putInt(event.body.length).array());
+        body.writeBytes(event.body);
+    }
+
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    int size() {
+        return body.size();
+    }
+
+    ServerEvent toEvent() {
+        return count == 1 ? first : new ServerEvent(SSEType.BATCH, body.toByteArray(), 0, false, first.created);
+    }
+}
+
+// Events retained for clients that connect late or reconnect, numbered by their id.
+// A CLEAR compacts the log: only LOADs and DEFINEs survive it, since the browser keeps
+// loaded scripts and defined commands. Beyond `maxEvents` or `maxBytes` the oldest
+// events other than these are dropped.
+class EventLog {
+    private final ArrayDeque<ServerEvent> events = new ArrayDeque<>();
+    private long lastId = 0;
+    private long missingUpTo = 0; // events up to this id may no longer be in the log
+    private boolean trimmed = false; // events dropped for the limits since the last CLEAR
+    private long bytes = 0;
+    private int maxEvents;
+    private long maxBytes;
+
+    EventLog(int maxEvents, long maxBytes) {
+        setLimits(maxEvents, maxBytes);
+    }
+
+    synchronized void setLimits(int maxEvents, long maxBytes) {
+        this.maxEvents = Math.max(0, maxEvents);
+        this.maxBytes = Math.max(0, maxBytes);
+        trim();
+    }
+
+    // returns the event with its id assigned
+    synchronized ServerEvent append(ServerEvent event) {
+        event = event.withId(++lastId);
+        if (event.type == SSEType.CLEAR) {
+            for (Iterator<ServerEvent> it = events.iterator(); it.hasNext();)
+                if (remove(it, it.next()))
+                    missingUpTo = lastId - 1;
+            trimmed = false;
+        }
+        events.add(event);
+        bytes += event.body.length;
+        trim();
+        return event;
+    }
+
+    // The events a client has to receive after the one with `lastEventId`. A client that
+    // is new (0) gets the whole log, one that missed dropped events gets a CLEAR first.
+    synchronized List<ServerEvent> since(long lastEventId) {
+        if (lastEventId > 0 && lastEventId >= missingUpTo && lastEventId <= lastId) {
+            List<ServerEvent> missed = new ArrayList<>();
+            for (Iterator<ServerEvent> it = events.descendingIterator(); it.hasNext();) {
+                ServerEvent event = it.next();
+                if (event.id <= lastEventId)
+                    break;
+                missed.add(event);
+            }
+            Collections.reverse(missed);
+            return missed;
+        }
+        List<ServerEvent> all = new ArrayList<>(events.size() + 1);
+        if (lastEventId > 0)
+            all.add(new ServerEvent(SSEType.CLEAR, new byte[0]));
+        all.addAll(events);
+        return all;
+    }
+
+    // the events with these ids that are still in the log, by id
+    synchronized Map<Long, ServerEvent> get(Set<Long> ids) {
+        Map<Long, ServerEvent> found = new HashMap<>();
+        long first = ids.stream().mapToLong(Long::longValue).min().orElse(Long.MAX_VALUE);
+        for (Iterator<ServerEvent> it = events.descendingIterator(); it.hasNext() && found.size() < ids.size();) {
+            ServerEvent event = it.next();
+            if (event.id < first)
+                break;
+            if (ids.contains(event.id))
+                found.put(event.id, event);
+        }
+        return found;
+    }
+
+    synchronized int size() {
+        return events.size();
+    }
+
+    // false if the log no longer holds everything the page shows
+    synchronized boolean complete() {
+        return !trimmed;
+    }
+
+    private void trim() {
+        for (Iterator<ServerEvent> it = events.iterator(); it.hasNext() && (events.size() > maxEvents || bytes > maxBytes);) {
+            ServerEvent event = it.next();
+            if (remove(it, event)) {
+                missingUpTo = Math.max(missingUpTo, event.id);
+                trimmed = true;
+            }
+        }
+    }
+
+    private boolean remove(Iterator<ServerEvent> it, ServerEvent event) {
+        if (event.type == SSEType.LOAD || event.type == SSEType.DEFINE)
+            return false;
+        it.remove();
+        bytes -= event.body.length;
+        return true;
+    }
+}
+
+// A client connection (SSE or WebSocket) with its own bounded outbound queue. A dedicated
+// virtual thread drains the queue, so a slow browser tab never stalls the producer.
+// Interactive events have a queue of their own, which is written first and between
+// the fragments of a large event (see ServerEvent).
+class SSEClient {
+    final OutputStream out;
+    final Function<ServerEvent, byte[]> framing;
+    final Consumer<SSEClient> onClose;
+    final BlockingQueue<ServerEvent> queue;
+    final BlockingQueue<ServerEvent> interactive;
+    private final Semaphore signal = new Semaphore(0); // released for each event queued in either lane
+    final Thread writer;
+    String id = ""; // chosen by the browser, the same for all its reconnects
+    final Histogram writes = new Histogram(); // time to write and flush what was queued
+    final LongAdder bytesWritten = new LongAdder();
+    final LongAdder dropped = new LongAdder();
+    volatile int backlog = 0; // events the browser received but didn't run yet, as last reported
+    volatile Tracer tracer = null; // told when an event is written
+    private List<ServerEvent> replay; // written before the queue, not bounded by its capacity
+    private final byte[] heartbeat; // written after `heartbeatMillis` without events, null: never
+    private final long heartbeatMillis;
+    private volatile byte[] last = null; // written before the connection closes, see `close`
+    volatile boolean closed = false;
+
+    SSEClient(OutputStream out, int capacity, Function<ServerEvent, byte[]> framing, List<ServerEvent> replay,
+            byte[] heartbeat, long heartbeatMillis, Consumer<SSEClient> onClose) {
+        this.out = out;
+        this.framing = framing;
+        this.replay = replay;
+        this.heartbeat = heartbeatMillis > 0 ? heartbeat : null;
+        this.heartbeatMillis = heartbeatMillis;
+        this.onClose = onClose;
+        queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        interactive = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        writer = Thread.ofVirtual().name("sse-writer").start(this::drain);
+    }
+
+    SSEClient(OutputStream out, int capacity, Function<ServerEvent, byte[]> framing, List<ServerEvent> replay,
+            Consumer<SSEClient> onClose) {
+        this(out, capacity, framing, replay, null, 0, onClose);
+    }
+
+    SSEClient(OutputStream out, int capacity, Function<ServerEvent, byte[]> framing, Consumer<SSEClient> onClose) {
+        this(out, capacity, framing, List.of(), onClose);
+    }
+
+    SSEClient(OutputStream out, int capacity, Consumer<SSEClient> onClose) {
+        this(out, capacity, ServerEvent::sseFrame, onClose);
+    }
+
+    int queued() {
+        return queue.size() + interactive.size();
+    }
+
+    // returns false if the client is (or just got) disconnected
+    boolean offer(ServerEvent message, OverflowPolicy policy) {
+        if (closed) return false;
+        BlockingQueue<ServerEvent> lane = message.interactive ? interactive : queue;
+        switch (policy) {
+            case BLOCK -> {
+                try {
+                    lane.put(message);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            case DROP_OLDEST -> {
+                while (!lane.offer(message))
+                    if (lane.poll() != null)
+                        dropped.increment();
+            }
+            case DISCONNECT -> {
+                if (!lane.offer(message)) {
+                    close();
+                    return false;
+                }
+            }
+        }
+        signal.release();
+        return !closed;
+    }
+
+    private void drain() {
+        try {
+            long start = System.nanoTime();
+            for (ServerEvent message : replay) {
+                if (closed)
+                    return;
+                write(message);
+            }
+            replay = null;
+            out.flush();
+            writes.record(System.nanoTime() - start);
+            while (!closed) {
+                if (heartbeat == null)
+                    signal.acquire();
+                else if (!signal.tryAcquire(heartbeatMillis, TimeUnit.MILLISECONDS)) {
+                    out.write(heartbeat);
+                    out.flush();
+                    continue;
+                }
+                signal.drainPermits(); // events queued from here on release a permit again
+                start = System.nanoTime();
+                // write everything that is already queued, then flush once
+                writeInteractive();
+                for (ServerEvent message; (message = queue.poll()) != null;) {
+                    write(message);
+                    writeInteractive();
+                }
+                out.flush();
+                writes.record(System.nanoTime() - start);
+            }
+        } catch (IOException | InterruptedException e) {
+            // connection is gone or the client was closed
+        } finally {
+            closed = true;
+            byte[] last = this.last;
+            if (last != null) {
+                Thread.interrupted(); // an interrupted thread's socket would be closed
+                try {
+                    out.write(last);
+                    out.flush();
+                } catch (IOException e) {
+                    // the connection is gone already
+                }
+            }
+            queue.clear(); // releases producers blocked in `offer`
+            interactive.clear();
+            onClose.accept(this);
+        }
+    }
+
+    private void writeInteractive() throws IOException {
+        for (ServerEvent message; (message = interactive.poll()) != null;)
+            writeFrame(message, message.unnumbered());
+    }
+
+    private void write(ServerEvent message) throws IOException {
+        if (!message.fragmented()) {
+            writeFrame(message, message);
+            return;
+        }
+        for (ServerEvent fragment : message.fragments()) {
+            writeFrame(fragment, fragment);
+            if (!interactive.isEmpty()) { // on the wire before the next fragment
+                writeInteractive();
+                out.flush();
+            }
+        }
+    }
+
+    // `sent` is `message` as it goes on the wire
+    private void writeFrame(ServerEvent message, ServerEvent sent) throws IOException {
+        byte[] frame = framing.apply(sent);
+        out.write(frame);
+        bytesWritten.add(frame.length);
+        Tracer tracer = this.tracer;
+        if (tracer != null && tracer.on && message.id > 0 && replay == null) // a replayed event isn't late
+            tracer.written(message);
+    }
+
+    // the writer thread does the actual cleanup, a producer never waits for it
+    void close() {
+        closed = true;
+        writer.interrupt();
+    }
+
+    // writes `last`, a WebSocket CLOSE say, after whatever it is writing now; waits up
+    // to a second for it, the caller closing the connection would cut it off
+    void close(byte[] last) {
+        this.last = last;
+        close();
+        try {
+            writer.join(1_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
+
+// Minimal RFC 6455 endpoint that carries both directions over one connection.
+// `com.sun.net.httpserver` cannot hand over the raw connection after a
+// `101 Switching Protocols`, so the endpoint listens on a port of its own,
+// which the browser learns via GET `/websocket`. Server events travel as
+// binary messages (see ServerEvent), the browser sends `<path>\n<body>` messages
+// which are passed on to the delegate its channel registered for `<path>`.
+class WebSocketServer {
+    static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    static final int maxMessageSize = 16 * 1024 * 1024;
+    final ServerSocket socket;
+    final LiveViewServer server;
+
+    WebSocketServer(LiveViewServer server) throws IOException {
+        this.server = server;
+        socket = new ServerSocket(0, 50, server.address);
+        Thread.ofVirtual().name("ws-accept").start(this::accept);
+    }
+
+    int port() {
+        return socket.getLocalPort();
+    }
+
+    private void accept() {
+        while (!socket.isClosed()) {
+            try {
+                Socket connection = socket.accept();
+                Thread.ofVirtual().name("ws-reader").start(() -> serve(connection));
+            } catch (IOException e) {
+                // socket closed by `stop`
+            }
+        }
+    }
+
+    private void serve(Socket connection) {
+        SSEClient client = null;
+        try (connection) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+            OutputStream out = new BufferedOutputStream(connection.getOutputStream());
+            String target = handshake(in, out);
+            if (target == null)
+                return;
+            String query = target.indexOf('?') < 0 ? null : target.substring(target.indexOf('?') + 1);
+            LiveView view = server.existingChannel(LiveViewServer.queryParameter(query, "channel"));
+            if (view == null) // stopped since the handshake
+                return;
+            client = view.addClient(LiveViewServer.queryParameter(query, "client"),
+                    LiveViewServer.parseEventId(LiveViewServer.queryParameter(query, "lastEventId")),
+                    replay -> new SSEClient(out, view.queueCapacity, ServerEvent::webSocketFrame, replay,
+                            ServerEvent.webSocketHeartbeat, view.heartbeatMillis, c -> {
+                view.removeClient(c);
+                try {
+                    connection.close();
+                } catch (IOException e) {
+                    // already closed
+                }
+            }));
+            byte[] status = receive(in, view);
+            // the browser's CLOSE is answered with one carrying its status code (RFC 6455, 5.5.1)
+            client.close(status.length < 2 ? new byte[] { (byte) 0x88, 0 }
+                    : new byte[] { (byte) 0x88, 2, status[0], status[1] });
+        } catch (IOException e) {
+            // connection is gone
+        } finally {
+            if (client != null)
+                client.close();
+        }
+    }
+
+    // returns the request target, or null if the connection was refused
+    private String handshake(DataInputStream in, OutputStream out) throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        String line = readLine(in); // request line
+        String[] requestLine = line == null ? new String[0] : line.split(" ");
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            int splitPos = line.indexOf(':');
+            if (splitPos > 0)
+                headers.put(line.substring(0, splitPos).trim().toLowerCase(), line.substring(splitPos + 1).trim());
+        }
+        String key = headers.get("sec-websocket-key");
+        if (key == null || !"websocket".equalsIgnoreCase(headers.get("upgrade"))) {
+            out.write("HTTP/1.1 400 Bad Request\r\nContent-Length: 0\r\nConnection: close\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            return null;
+        }
+        if (!"13".equals(headers.get("sec-websocket-version"))) { // the only version there is
+            out.write(("HTTP/1.1 426 Upgrade Required\r\nSec-WebSocket-Version: 13\r\nContent-Length: 0\r\n"
+                    + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            return null;
+        }
+        if (!allowed(headers.get("origin"), headers.get("host"))) { // another site open in the browser
+            out.write("HTTP/1.1 403 Forbidden\r\nContent-Length: 0\r\nConnection: close\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            return null;
+        }
+        String target = requestLine.length > 1 ? requestLine[1] : "/";
+        String query = target.indexOf('?') < 0 ? null : target.substring(target.indexOf('?') + 1);
+        if (server.existingChannel(LiveViewServer.queryParameter(query, "channel")) == null) {
+            out.write("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\nConnection: close\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            return null;
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest((key + GUID).getBytes(StandardCharsets.US_ASCII));
+            out.write(("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                    + "Sec-WebSocket-Accept: " + Base64.getEncoder().encodeToString(digest) + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            return target;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JDK ships SHA-1
+        }
+    }
+
+    // Browsers send the origin of the page, which has to be the live view itself; any page
+    // could connect to the loopback port otherwise. Served on another interface, the page
+    // may also come from the host the browser connected to. Other clients send none.
+    private boolean allowed(String origin, String host) {
+        if (origin == null)
+            return true;
+        List<String> hosts = new ArrayList<>(List.of("localhost", "127.0.0.1", "[::1]"));
+        if (!server.address.isLoopbackAddress() && host != null) // without the port, `[::1]:80` has two colons
+            hosts.add(host.lastIndexOf(':') > host.lastIndexOf(']') ? host.substring(0, host.lastIndexOf(':')) : host);
+        for (String page : hosts)
+            if (origin.equalsIgnoreCase("http://" + page + ":" + server.port))
+                return true;
+        return false;
+    }
+
+    private static String readLine(DataInputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0)
+                return null;
+            if (c != '\r')
+                line.append((char) c);
+        }
+        return line.toString();
+    }
+
+    // returns the payload of the browser's CLOSE
+    private byte[] receive(DataInputStream in, LiveView view) throws IOException {
+        ByteArrayOutputStream message = new ByteArrayOutputStream();
+        while (true) {
+            int b0 = in.readUnsignedByte();
+            int b1 = in.readUnsignedByte();
+            long length = b1 & 0x7F;
+            if (length == 126)
+                length = in.readUnsignedShort();
+            else if (length == 127)
+                length = in.readLong();
+            if (length < 0 || message.size() + length > maxMessageSize)
+                throw new IOException("WebSocket message too large");
+            byte[] mask = (b1 & 0x80) != 0 ? in.readNBytes(4) : null;
+            byte[] payload = new byte[(int) length];
+            in.readFully(payload);
+            if (mask != null)
+                for (int i = 0; i < payload.length; i++)
+                    payload[i] ^= mask[i & 3];
+            switch (b0 & 0x0F) {
+                case 0x8 -> { return payload; } // close
+                case 0x9, 0xA -> { } // ping, pong: the answer to our heartbeat
+                default -> { // text, binary or continuation, `path\nbody`
+                    if ((b0 & 0x80) == 0 || message.size() > 0) { // fragmented
+                        message.write(payload);
+                        if ((b0 & 0x80) == 0)
+                            break;
+                        payload = message.toByteArray();
+                        message.reset();
+                    }
+                    int splitPos = 0;
+                    while (splitPos < payload.length && payload[splitPos] != '\n')
+                        splitPos++;
+                    int bodyStart = Math.min(splitPos + 1, payload.length);
+                    view.dispatch(new String(payload, 0, splitPos, StandardCharsets.UTF_8),
+                            new RequestBody(payload, bodyStart, payload.length - bodyStart));
+                }
+            }
+        }
+    }
+
+    void stop() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // nothing left to do
+        }
+    }
+}
+
+// The body of a POST or WebSocket message, read completely before the delegate runs.
+// It is handed out as it arrived, without a String in between: as a ByteBuffer in the
+// browser's byte order (little-endian, like its typed arrays), as an InputStream, or
+// through `nextLong` and `nextDouble`, which parse the numbers of a text body like
+// `{"mouseMoveX":-3,"mouseMoveY":1.5}` or `-3,1.5` in place.
+final class RequestBody {
+    private final byte[] bytes;
+    private final int offset, length;
+    private int position; // of `nextLong` and `nextDouble`
+
+    RequestBody(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+        position = offset;
+    }
+
+    RequestBody(String text) {
+        this(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    RequestBody(byte[] bytes) {
+        this(bytes, 0, bytes.length);
+    }
+
+    // `length` bytes, or up to the end of the stream if it is -1 (chunked transfer encoding)
+    static RequestBody read(InputStream in, long length, int maxLength) throws IOException {
+        if (length > maxLength)
+            throw new IOException("request body too large: " + length);
+        if (length >= 0) {
+            byte[] bytes = in.readNBytes((int) length);
+            if (bytes.length < length)
+                throw new EOFException("request body ended after " + bytes.length + " of " + length + " bytes");
+            return new RequestBody(bytes);
+        }
+        byte[] bytes = in.readNBytes(maxLength + 1);
+        if (bytes.length > maxLength)
+            throw new IOException("request body too large");
+        return new RequestBody(bytes);
+    }
+
+    int length() {
+        return length;
+    }
+
+    String text() {
+        return new String(bytes, offset, length, StandardCharsets.UTF_8);
+    }
+
+    // a read-only view, little-endian
+    ByteBuffer buffer() {
+        return ByteBuffer.wrap(bytes, offset, length).slice().asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    InputStream stream() {
+        return new ByteArrayInputStream(bytes, offset, length);
+    }
+
+    byte[] bytes() { // a copy
+        return Arrays.copyOfRange(bytes, offset, offset + length);
+    }
+
+    // true if `nextLong` or `nextDouble` finds another number
+    boolean hasNext() {
+        return skipToNumber();
+    }
+
+    long nextLong() {
+        if (!skipToNumber())
+            throw new NoSuchElementException("no number left in the request body");
+        int start = position, end = offset + length;
+        boolean negative = bytes[position] == '-';
+        if (bytes[position] == '-' || bytes[position] == '+')
+            position++;
+        long value = 0; // built negatively, Long.MIN_VALUE has no positive counterpart
+        while (position < end && isDigit(bytes[position]))
+            value = Math.subtractExact(Math.multiplyExact(value, 10), bytes[position++] - '0');
+        if (position < end && bytes[position] == '.') { // a fraction is cut off
+            position++;
+            while (position < end && isDigit(bytes[position]))
+                position++;
+        }
+        if (isExponent(position)) { // 2e3 is 2000, not 2 and 3
+            double scaled = slowDouble(start);
+            if (scaled >= 0x1p63 || scaled < -0x1p63)
+                throw new ArithmeticException("long overflow");
+            return (long) scaled;
+        }
+        return negative ? value : Math.negateExact(value);
+    }
+
+    int nextInt() {
+        return Math.toIntExact(nextLong());
+    }
+
+    // Up to 15 significant digits and exponents up to 22 are exact without a String:
+    // both the digits and the power of ten are exact doubles, so is their quotient or
+    // product. Anything else falls back to Double.parseDouble.
+    double nextDouble() {
+        if (!skipToNumber())
+            throw new NoSuchElementException("no number left in the request body");
+        int start = position, end = offset + length;
+        boolean negative = bytes[position] == '-';
+        if (bytes[position] == '-' || bytes[position] == '+')
+            position++;
+        long digits = 0;
+        int significant = 0, scale = 0;
+        for (boolean fraction = false; position < end; position++) {
+            byte b = bytes[position];
+            if (b == '.' && !fraction) {
+                fraction = true;
+            } else if (isDigit(b)) {
+                if (digits != 0 || b != '0')
+                    significant++;
+                digits = digits * 10 + (b - '0');
+                if (fraction)
+                    scale++;
+                if (significant > 15)
+                    return slowDouble(start);
+            } else {
+                break;
+            }
+        }
+        if (isExponent(position))
+            return slowDouble(start);
+        if (scale > 22)
+            return slowDouble(start);
+        double value = digits / powersOfTen[scale];
+        return negative ? -value : value;
+    }
+
+    private static final double[] powersOfTen = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    private double slowDouble(int start) {
+        int end = offset + length;
+        position = start + 1;
+        for (boolean fraction = bytes[start] == '.'; position < end; position++)
+            if (bytes[position] == '.' && !fraction)
+                fraction = true;
+            else if (!isDigit(bytes[position]))
+                break;
+        if (isExponent(position)) {
+            position += 2; // past `e` and the sign or first digit
+            while (position < end && isDigit(bytes[position]))
+                position++;
+        }
+        return Double.parseDouble(new String(bytes, start, position - start, StandardCharsets.US_ASCII));
+    }
+
+    // moves to the next digit, or to the sign or point right before one
+    private boolean skipToNumber() {
+        int end = offset + length;
+        for (; position < end; position++) {
+            byte b = bytes[position];
+            if (isDigit(b))
+                return true;
+            if ((b == '-' || b == '+' || b == '.') && position + 1 < end && isDigit(bytes[position + 1]))
+                return true;
+            if ((b == '-' || b == '+') && position + 2 < end && bytes[position + 1] == '.' && isDigit(bytes[position + 2]))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    // an `e` or `E` followed by digits, `5em` is a 5
+    private boolean isExponent(int at) {
+        int end = offset + length;
+        if (at + 1 >= end || (bytes[at] != 'e' && bytes[at] != 'E'))
+            return false;
+        return isDigit(bytes[at + 1])
+                || (bytes[at + 1] == '-' || bytes[at + 1] == '+') && at + 2 < end && isDigit(bytes[at + 2]);
+    }
+}
+
+// A delegate registered via `createResponseContext`. At most `maxConcurrency` requests
+// run at the same time and up to `maxQueued` more wait in line (FIFO); any further
+// request is rejected, so one busy view can't take over the server.
+class ResponseContext {
+    final Consumer<RequestBody> delegate;
+    final Semaphore permits;
+    final int maxQueued;
+    final AtomicInteger queued = new AtomicInteger();
+    final Histogram latency = new Histogram(); // of the delegate
+    final LongAdder rejected = new LongAdder();
+
+    ResponseContext(Consumer<RequestBody> delegate, int maxConcurrency, int maxQueued) {
+        this.delegate = delegate;
+        permits = new Semaphore(Math.max(1, maxConcurrency), true);
+        this.maxQueued = Math.max(0, maxQueued);
+    }
+
+    // for delegates taking the body as text
+    static ResponseContext ofText(Consumer<String> delegate, int maxConcurrency, int maxQueued) {
+        return new ResponseContext(body -> delegate.accept(body.text()), maxConcurrency, maxQueued);
+    }
+
+    static ResponseContext ofText(Consumer<String> delegate) {
+        return ofText(delegate, Integer.MAX_VALUE, 0);
+    }
+
+    // returns false if the request was rejected
+    boolean handle(RequestBody data) {
+        try {
+            if (!permits.tryAcquire(0, TimeUnit.MILLISECONDS)) { // respects waiting requests
+                if (queued.incrementAndGet() > maxQueued) {
+                    queued.decrementAndGet();
+                    rejected.increment();
+                    return false;
+                }
+                try {
+                    permits.acquire();
+                } finally {
+                    queued.decrementAndGet();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        long start = System.nanoTime();
+        try {
+            delegate.accept(data);
+        } finally {
+            latency.record(System.nanoTime() - start);
+            permits.release();
+        }
+        return true;
+    }
+}
+
+// Static files kept in memory, keyed by path. An entry is reloaded as soon as the
+// file's modification time changes. Content type, ETag and the gzip and deflate
+// variants of text files are computed once per load.
+class AssetCache {
+    record Asset(FileTime modified, byte[] bytes, byte[] gzip, byte[] deflate, String contentType, String etag) {
+        // each encoding has bytes of its own, so an ETag of its own
+        String etag(String encoding) {
+            return encoding == null ? etag : etag.substring(0, etag.length() - 1)
+                    + (encoding.equals("gzip") ? "-gz\"" : "-df\"");
+        }
+    }
+
+    static final Map<String, String> contentTypes = Map.of(
+            "html", "text/html; charset=utf-8", "js", "text/javascript; charset=utf-8",
+            "css", "text/css; charset=utf-8", "json", "application/json; charset=utf-8",
+            "md", "text/markdown; charset=utf-8", "svg", "image/svg+xml",
+            "png", "image/png", "gif", "image/gif", "ico", "image/x-icon");
+
+    final Map<Path, Asset> assets = new ConcurrentHashMap<>();
+
+    // Files named by a fingerprint of their content, `<name>.<fingerprint>.<extension>` as
+    // StaticExport writes them, don't change; browsers needn't revalidate them. Any other
+    // file may be replaced under the same name, a library updated, say.
+    static boolean isVersioned(Path path) {
+        return path.getFileName().toString().matches(".+\\.[0-9a-f]{24}\\.[^.]+");
+    }
+
+    Asset get(Path path) throws IOException {
+        FileTime modified = Files.getLastModifiedTime(path);
+        Asset asset = assets.get(path);
+        if (asset == null || !asset.modified().equals(modified)) {
+            asset = load(path, modified);
+            assets.put(path, asset);
+        }
+        return asset;
+    }
+
+    private static Asset load(Path path, FileTime modified) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        String fileName = path.getFileName().toString();
+        String contentType = contentTypes.get(fileName.substring(fileName.lastIndexOf('.') + 1).toLowerCase());
+        if (contentType == null) {
+            contentType = Files.probeContentType(path);
+            contentType = contentType == null ? "application/octet-stream"
+                    : contentType.startsWith("text/") ? contentType + "; charset=utf-8" : contentType;
+        }
+        boolean compressible = contentType.startsWith("text/") || contentType.contains("json")
+                || contentType.contains("svg");
+        byte[] gzip = null, deflate = null;
+        if (compressible) {
+            gzip = compress(bytes, true);
+            deflate = compress(bytes, false);
+            if (gzip.length >= bytes.length) gzip = null;
+            if (deflate.length >= bytes.length) deflate = null;
+        }
+        return new Asset(modified, bytes, gzip, deflate, contentType, etag(bytes));
+    }
+
+    private static byte[] compress(byte[] bytes, boolean gzip) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 3);
+        try (OutputStream compressor = gzip ? new GZIPOutputStream(out) : new DeflaterOutputStream(out)) {
+            compressor.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    private static String etag(byte[] bytes) {
+        return "\"" + fingerprint(bytes) + "\"";
+    }
+
+    static String fingerprint(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(bytes);
+            return HexFormat.of().formatHex(digest, 0, 12);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JDK ships SHA-1
+        }
+    }
+}
+
+// Durations in buckets of powers of two, from below 2^10 ns (1 µs) up to 2^34 ns (17 s)
+// and beyond. Recording is an increment of two LongAdders, cheap enough to be always on.
+final class Histogram {
+    static final int buckets = 26;
+    private final LongAdder[] counts = new LongAdder[buckets];
+    private final LongAdder sum = new LongAdder();
+
+    record Snapshot(long[] counts, long sum) {
+        long count() {
+            long count = 0;
+            for (long c : counts)
+                count += c;
+            return count;
+        }
+
+        // upper bound of the bucket holding the q-quantile, in seconds
+        double quantile(double q) {
+            long rank = (long) Math.ceil(q * count()), seen = 0;
+            for (int i = 0; i < buckets; i++)
+                if ((seen += counts[i]) >= rank && seen > 0)
+                    return upperBound(i);
+            return 0;
+        }
+    }
+
+    Histogram() {
+        for (int i = 0; i < buckets; i++)
+            counts[i] = new LongAdder();
+    }
+
+    void record(long nanos) {
+        counts[Math.min(buckets - 1, Math.max(0, 64 - Long.numberOfLeadingZeros(nanos) - 10))].increment();
+        sum.add(nanos);
+    }
+
+    void add(Snapshot snapshot) {
+        for (int i = 0; i < buckets; i++)
+            counts[i].add(snapshot.counts()[i]);
+        sum.add(snapshot.sum());
+    }
+
+    Snapshot snapshot() {
+        long[] values = new long[buckets];
+        for (int i = 0; i < buckets; i++)
+            values[i] = counts[i].sum();
+        return new Snapshot(values, sum.sum());
+    }
+
+    static Snapshot merge(Snapshot a, Snapshot b) {
+        long[] values = a.counts().clone();
+        for (int i = 0; i < buckets; i++)
+            values[i] += b.counts()[i];
+        return new Snapshot(values, a.sum() + b.sum());
+    }
+
+    // in seconds, infinite for the last bucket
+    static double upperBound(int bucket) {
+        return bucket == buckets - 1 ? Double.POSITIVE_INFINITY : (1L << (bucket + 10)) / 1e9;
+    }
+}
+
+// An HttpServer on one selector thread, an alternative to the JDK's server for many
+// long-lived streams (see `LiveViewServer.setNioCore`). The selector thread accepts,
+// reads and parses requests (with their bodies) and writes responses; handlers run on
+// the executor and see the usual HttpExchange. Writing to a response body never waits
+// for the socket, unless more than `maxPending` bytes are still queued for a slow peer,
+// so a thousand idle SSE streams cost a socket and a few buffers each, not a thread.
+//
+// Dead peers: a stream is closed as soon as the browser closes its end, which the
+// selector sees although the browser never sends anything on it; a connection whose
+// queued bytes don't move for `writeTimeout` (a peer gone without a word, noticed
+// through the heartbeats of SSEClient) and one that waits for a request longer than
+// `idleTimeout` are closed, too. Each connection is the attachment of its selection
+// key, nothing is looked up or copied when one comes or goes.
+class NioHttpServer extends HttpServer {
+    static final int maxHeaderSize = 64 * 1024;
+    static final long idleTimeout = TimeUnit.SECONDS.toNanos(60);
+    static final long writeTimeout = TimeUnit.SECONDS.toNanos(30);
+    static final int maxPending = 1 << 20; // bytes per connection before a writer waits
+    final int maxBodySize;
+    private final Selector selector;
+    private final ServerSocketChannel acceptor;
+    private final Map<String, Context> contexts = new ConcurrentHashMap<>();
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>(); // for the selector thread
+    private volatile Executor executor = Runnable::run;
+    private volatile boolean running = false;
+    private Thread thread;
+
+    // unbound, like `HttpServer.create()`, until `bind`
+    NioHttpServer(int maxBodySize) throws IOException {
+        this.maxBodySize = maxBodySize;
+        selector = Selector.open();
+        acceptor = ServerSocketChannel.open();
+        acceptor.configureBlocking(false);
+    }
+
+    NioHttpServer(InetSocketAddress address, int maxBodySize) throws IOException {
+        this(maxBodySize);
+        bind(address, 0);
+    }
+
+    // `backlog` 0 or less: 1024
+    @Override
+    public synchronized void bind(InetSocketAddress address, int backlog) throws IOException {
+        if (acceptor.getLocalAddress() != null)
+            throw new BindException("already bound to " + acceptor.getLocalAddress());
+        acceptor.bind(address, backlog > 0 ? backlog : 1024);
+        acceptor.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    @Override
+    public synchronized void start() {
+        if (running)
+            return;
+        if (getAddress() == null)
+            throw new IllegalStateException("not bound");
+        running = true;
+        thread = Thread.ofPlatform().daemon().name("nio-selector " + getAddress().getPort()).start(this::select);
+    }
+
+    @Override
+    public void setExecutor(Executor executor) {
+        this.executor = executor == null ? Runnable::run : executor;
+    }
+
+    @Override
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public void stop(int delay) {
+        running = false;
+        selector.wakeup();
+        try {
+            if (thread != null)
+                thread.join(TimeUnit.SECONDS.toMillis(Math.max(1, delay)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public HttpContext createContext(String path, HttpHandler handler) {
+        Context context = new Context(path, handler);
+        if (contexts.putIfAbsent(path, context) != null)
+            throw new IllegalArgumentException("context exists: " + path);
+        return context;
+    }
+
+    @Override
+    public HttpContext createContext(String path) {
+        return createContext(path, null);
+    }
+
+    @Override
+    public void removeContext(String path) {
+        if (contexts.remove(path) == null)
+            throw new IllegalArgumentException("no context: " + path);
+    }
+
+    @Override
+    public void removeContext(HttpContext context) {
+        contexts.remove(context.getPath(), context);
+    }
+
+    @Override
+    public InetSocketAddress getAddress() {
+        try {
+            return (InetSocketAddress) acceptor.getLocalAddress();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // the longest context path the request path starts with, as with the JDK's server
+    private Context context(String path) {
+        Context found = null;
+        for (Context context : contexts.values())
+            if (path.startsWith(context.path) && (found == null || context.path.length() > found.path.length()))
+                found = context;
+        return found;
+    }
+
+    private void select() {
+        long lastSweep = System.nanoTime();
+        try {
+            while (running) {
+                selector.select(1_000);
+                for (Runnable task; (task = tasks.poll()) != null;)
+                    task.run();
+                for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext();) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    try {
+                        if (!key.isValid())
+                            continue;
+                        if (key.isAcceptable())
+                            accept();
+                        else {
+                            Connection connection = (Connection) key.attachment();
+                            if (key.isWritable())
+                                connection.writeQueued();
+                            if (key.isValid() && key.isReadable())
+                                connection.read();
+                        }
+                    } catch (IOException | CancelledKeyException e) {
+                        if (key.attachment() instanceof Connection connection)
+                            connection.close();
+                    }
+                }
+                long now = System.nanoTime();
+                if (now - lastSweep > TimeUnit.SECONDS.toNanos(1)) {
+                    lastSweep = now;
+                    for (SelectionKey key : selector.keys())
+                        if (key.attachment() instanceof Connection connection)
+                            connection.checkTimeouts(now);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("NIO server failed: " + e.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys())
+                if (key.attachment() instanceof Connection connection)
+                    connection.close();
+            try {
+                acceptor.close();
+                selector.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        for (SocketChannel channel; (channel = acceptor.accept()) != null;) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        }
+    }
+
+    private final class Context extends HttpContext {
+        final String path;
+        volatile HttpHandler handler;
+        private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+        private final List<Filter> filters = new CopyOnWriteArrayList<>(); // after the authenticator, as in the JDK's server
+        private volatile Authenticator authenticator;
+
+        Context(String path, HttpHandler handler) {
+            this.path = path;
+            this.handler = handler;
+        }
+
+        @Override
+        public HttpHandler getHandler() {
+            return handler;
+        }
+
+        @Override
+        public void setHandler(HttpHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public HttpServer getServer() {
+            return NioHttpServer.this;
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return attributes;
+        }
+
+        @Override
+        public List<Filter> getFilters() {
+            return filters;
+        }
+
+        @Override
+        public Authenticator setAuthenticator(Authenticator authenticator) {
+            Authenticator old = this.authenticator;
+            this.authenticator = authenticator;
+            return old;
+        }
+
+        @Override
+        public Authenticator getAuthenticator() {
+            return authenticator;
+        }
+    }
+
+    // One socket and its state. Reading and parsing happen on the selector thread only;
+    // the queue of outgoing bytes is shared with the handler threads under `lock`.
+    private final class Connection {
+        final SocketChannel channel;
+        SelectionKey key;
+        private ByteBuffer in = ByteBuffer.allocate(8 * 1024); // received, not yet parsed
+        private Exchange exchange; // the request being answered, null while waiting for one
+        private long lastRead = System.nanoTime(); // or the end of the last exchange
+        private final ReentrantLock lock = new ReentrantLock(); // not `synchronized`, writers are virtual threads
+        private final Condition drained = lock.newCondition();
+        private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        private long pending = 0; // bytes in `out`
+        private long lastWrite = System.nanoTime(); // progress with `out`
+        private volatile boolean closed = false;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void read() throws IOException {
+            if (!in.hasRemaining()) {
+                if (in.capacity() >= maxHeaderSize + maxBodySize) {
+                    key.interestOpsAnd(~SelectionKey.OP_READ); // a client pushing requests ahead, wait
+                    return;
+                }
+                in = ByteBuffer.allocate(Math.min(in.capacity() * 2, maxHeaderSize + maxBodySize)).put(in.flip());
+            }
+            int n = channel.read(in);
+            if (n < 0) { // the peer is gone, also while its stream is still open
+                close();
+                return;
+            }
+            lastRead = System.nanoTime();
+            if (exchange == null)
+                parse();
+        }
+
+        // starts the exchange of the first complete request in `in`
+        private void parse() throws IOException {
+            int headerEnd = find(in, 0, in.position());
+            if (headerEnd < 0) {
+                if (in.position() >= maxHeaderSize)
+                    reject(431); // Request Header Fields Too Large
+                return;
+            }
+            String[] lines = new String(in.array(), 0, headerEnd, StandardCharsets.ISO_8859_1).split("\r\n");
+            String[] requestLine = lines[0].split(" ");
+            if (requestLine.length != 3) {
+                reject(400);
+                return;
+            }
+            Headers headers = new Headers();
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon > 0)
+                    headers.add(lines[i].substring(0, colon).trim(), lines[i].substring(colon + 1).trim());
+            }
+            int bodyStart = headerEnd + 4;
+            byte[] body;
+            int end;
+            String length = headers.getFirst("Content-length");
+            if ("chunked".equalsIgnoreCase(headers.getFirst("Transfer-encoding"))) {
+                ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+                end = dechunk(in, bodyStart, decoded);
+                if (end == -2) {
+                    reject(400);
+                    return;
+                }
+                if (end < 0) {
+                    if (decoded.size() > maxBodySize)
+                        reject(413);
+                    return; // incomplete
+                }
+                body = decoded.toByteArray();
+            } else {
+                long size;
+                try {
+                    size = length == null ? 0 : Long.parseLong(length.trim());
+                } catch (NumberFormatException e) {
+                    reject(400);
+                    return;
+                }
+                if (size < 0 || size > maxBodySize) {
+                    reject(size < 0 ? 400 : 413); // Content Too Large
+                    return;
+                }
+                if ("100-continue".equalsIgnoreCase(headers.getFirst("Expect")) && in.position() == bodyStart)
+                    send(ByteBuffer.wrap("HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII)));
+                if (in.position() < bodyStart + size) {
+                    if (in.capacity() < bodyStart + size)
+                        in = ByteBuffer.allocate((int) (bodyStart + size)).put(in.flip());
+                    return; // incomplete
+                }
+                end = (int) (bodyStart + size);
+                body = Arrays.copyOfRange(in.array(), bodyStart, end);
+            }
+            in.flip().position(end);
+            in.compact(); // a pipelined request stays, it is parsed after this exchange
+            URI uri;
+            try {
+                uri = new URI(requestLine[1]);
+            } catch (URISyntaxException e) {
+                reject(400);
+                return;
+            }
+            Context context = context(uri.getPath() == null ? "/" : uri.getPath());
+            if (context == null || context.handler == null) {
+                reject(404);
+                return;
+            }
+            boolean keepAlive = requestLine[2].equals("HTTP/1.1")
+                    ? !"close".equalsIgnoreCase(headers.getFirst("Connection"))
+                    : "keep-alive".equalsIgnoreCase(headers.getFirst("Connection"));
+            Exchange started = new Exchange(this, context, requestLine[0], uri, requestLine[2], headers, body, keepAlive);
+            exchange = started;
+            executor.execute(() -> {
+                try {
+                    if (authenticate(context, started))
+                        new Filter.Chain(context.filters, context.handler).doFilter(started);
+                } catch (Throwable e) {
+                    if (!started.headersSent)
+                        System.err.println("Handler of " + context.path + " failed: " + e);
+                    close();
+                }
+            });
+        }
+
+        // ends `finished`, then goes on with a request that came in meanwhile; any thread
+        void finish(Exchange finished, boolean keepAlive) {
+            if (!keepAlive) {
+                lock.lock();
+                try { // close once everything is written
+                    if (pending == 0)
+                        close();
+                    else
+                        out.add(closeMarker);
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+            tasks.add(() -> {
+                if (exchange != finished || closed)
+                    return;
+                exchange = null;
+                lastRead = System.nanoTime();
+                try {
+                    key.interestOpsOr(SelectionKey.OP_READ);
+                    parse();
+                } catch (IOException | CancelledKeyException e) {
+                    close();
+                }
+            });
+            selector.wakeup();
+        }
+
+        // false if the context's authenticator turned the request down, which it then answered
+        private boolean authenticate(Context context, Exchange started) throws IOException {
+            Authenticator authenticator = context.authenticator;
+            if (authenticator == null)
+                return true;
+            switch (authenticator.authenticate(started)) {
+                case Authenticator.Success success -> {
+                    started.principal = success.getPrincipal();
+                    return true;
+                }
+                case Authenticator.Failure failure -> started.sendResponseHeaders(failure.getResponseCode(), -1);
+                case Authenticator.Retry retry -> started.sendResponseHeaders(retry.getResponseCode(), -1);
+                default -> started.sendResponseHeaders(500, -1);
+            }
+            started.close();
+            return false;
+        }
+
+        private void reject(int code) throws IOException {
+            exchange = new Exchange(this, null, "", URI.create("/"), "HTTP/1.1", new Headers(), new byte[0], false);
+            exchange.sendResponseHeaders(code, -1);
+        }
+
+        // writes right away if nothing is queued, queues the rest; waits while too much is queued
+        void send(ByteBuffer bytes) throws IOException {
+            lock.lock();
+            try {
+                if (closed)
+                    throw new IOException("connection closed");
+                if (out.isEmpty()) {
+                    channel.write(bytes);
+                    lastWrite = System.nanoTime();
+                }
+                if (bytes.hasRemaining()) {
+                    if (out.isEmpty()) {
+                        key.interestOpsOr(SelectionKey.OP_WRITE);
+                        selector.wakeup();
+                    }
+                    out.add(bytes);
+                    pending += bytes.remaining();
+                }
+                while (pending > maxPending && !closed)
+                    drained.awaitUninterruptibly();
+                if (closed)
+                    throw new IOException("connection closed");
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // on the selector thread when the socket takes more
+        void writeQueued() throws IOException {
+            lock.lock();
+            try {
+                while (!out.isEmpty()) {
+                    ByteBuffer next = out.peek();
+                    if (next == closeMarker) {
+                        close();
+                        return;
+                    }
+                    int n = channel.write(next);
+                    if (n > 0) {
+                        pending -= n;
+                        lastWrite = System.nanoTime();
+                    }
+                    if (next.hasRemaining())
+                        break;
+                    out.poll();
+                }
+                if (out.isEmpty())
+                    key.interestOpsAnd(~SelectionKey.OP_WRITE);
+                if (pending <= maxPending / 2)
+                    drained.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void checkTimeouts(long now) {
+            lock.lock();
+            try {
+                if (pending > 0 && now - lastWrite > writeTimeout)
+                    close(); // the peer doesn't take anything
+            } finally {
+                lock.unlock();
+            }
+            if (exchange == null && now - lastRead > idleTimeout)
+                close(); // no request, or only part of one
+        }
+
+        void close() {
+            lock.lock();
+            try {
+                if (closed)
+                    return;
+                closed = true;
+                out.clear();
+                pending = 0;
+                drained.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            try {
+                channel.close(); // cancels the key
+            } catch (IOException e) {
+                // closed anyway
+            }
+        }
+    }
+
+    private static final ByteBuffer closeMarker = ByteBuffer.allocate(0);
+
+    // position of "\r\n\r\n" in `buffer` between `from` and `to`, -1 if there is none
+    private static int find(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = buffer.array();
+        for (int i = from; i + 3 < to; i++)
+            if (bytes[i] == '\r' && bytes[i + 1] == '\n' && bytes[i + 2] == '\r' && bytes[i + 3] == '\n')
+                return i;
+        return -1;
+    }
+
+    // decodes a chunked body from `start`, returns its end, -1 if it is incomplete, -2 if it is malformed
+    private static int dechunk(ByteBuffer buffer, int start, ByteArrayOutputStream decoded) {
+        byte[] bytes = buffer.array();
+        int limit = buffer.position(), pos = start;
+        while (true) {
+            int lineEnd = pos;
+            while (lineEnd + 1 < limit && !(bytes[lineEnd] == '\r' && bytes[lineEnd + 1] == '\n'))
+                lineEnd++;
+            if (lineEnd + 1 >= limit)
+                return -1;
+            String sizeLine = new String(bytes, pos, lineEnd - pos, StandardCharsets.US_ASCII);
+            int semicolon = sizeLine.indexOf(';'); // chunk extensions are ignored
+            int size;
+            try {
+                size = Integer.parseInt((semicolon < 0 ? sizeLine : sizeLine.substring(0, semicolon)).trim(), 16);
+            } catch (NumberFormatException e) {
+                return -2;
+            }
+            if (size < 0)
+                return -2;
+            pos = lineEnd + 2;
+            if (size == 0) { // trailers up to an empty line
+                if (pos + 1 < limit && bytes[pos] == '\r' && bytes[pos + 1] == '\n')
+                    return pos + 2;
+                int trailersEnd = find(buffer, pos, limit);
+                return trailersEnd < 0 ? -1 : trailersEnd + 4;
+            }
+            if (pos + size + 2 > limit)
+                return -1;
+            decoded.write(bytes, pos, size);
+            pos += size + 2;
+        }
+    }
+
+    // One request and its response. The response body is buffered up to `flush`, which
+    // hands it to the connection, as one chunk if its length wasn't given in advance.
+    private final class Exchange extends HttpExchange {
+        private final Connection connection;
+        private final Context context;
+        private final String method, protocol;
+        private final URI uri;
+        private final Headers requestHeaders, responseHeaders = new Headers();
+        private final InputStream requestBody;
+        private final boolean keepAlive;
+        private final Map<String, Object> attributes = new HashMap<>();
+        private InputStream input;
+        private OutputStream output;
+        private final Body body = new Body();
+        private int code = -1;
+        volatile boolean headersSent = false;
+        private long remaining = -1; // of a fixed-length body, -1: chunked
+        private boolean finished = false;
+        HttpPrincipal principal = null; // set by the context's authenticator
+
+        Exchange(Connection connection, Context context, String method, URI uri, String protocol, Headers headers,
+                byte[] body, boolean keepAlive) {
+            this.connection = connection;
+            this.context = context;
+            this.method = method;
+            this.uri = uri;
+            this.protocol = protocol;
+            this.requestHeaders = headers;
+            this.requestBody = new ByteArrayInputStream(body);
+            this.keepAlive = keepAlive;
+            input = requestBody;
+            output = this.body;
+        }
+
+        @Override
+        public Headers getRequestHeaders() {
+            return requestHeaders;
+        }
+
+        @Override
+        public Headers getResponseHeaders() {
+            return responseHeaders;
+        }
+
+        @Override
+        public URI getRequestURI() {
+            return uri;
+        }
+
+        @Override
+        public String getRequestMethod() {
+            return method;
+        }
+
+        @Override
+        public HttpContext getHttpContext() {
+            return context;
+        }
+
+        @Override
+        public void close() {
+            try {
+                output.close();
+            } catch (IOException e) {
+                connection.close();
+            }
+        }
+
+        @Override
+        public InputStream getRequestBody() {
+            return input;
+        }
+
+        @Override
+        public OutputStream getResponseBody() {
+            return output;
+        }
+
+        // `length` 0: chunked, of any length; -1: no body
+        @Override
+        public void sendResponseHeaders(int code, long length) throws IOException {
+            if (headersSent)
+                throw new IOException("headers already sent");
+            headersSent = true;
+            this.code = code;
+            boolean noBody = length < 0 || code == 304 || code == 204 || method.equalsIgnoreCase("HEAD");
+            StringBuilder head = new StringBuilder("HTTP/1.1 ").append(code).append(' ').append(reason(code)).append("\r\n");
+            responseHeaders.forEach((name, values) -> {
+                for (String value : values)
+                    head.append(name).append(": ").append(value).append("\r\n");
+            });
+            if (noBody) {
+                if (code != 304 && code != 204)
+                    head.append("Content-length: 0\r\n");
+            } else if (length > 0) {
+                head.append("Content-length: ").append(length).append("\r\n");
+                remaining = length;
+            } else {
+                head.append("Transfer-encoding: chunked\r\n");
+            }
+            if (!keepAlive)
+                head.append("Connection: close\r\n");
+            head.append("\r\n");
+            connection.send(ByteBuffer.wrap(head.toString().getBytes(StandardCharsets.ISO_8859_1)));
+            if (noBody) {
+                remaining = 0;
+                end();
+            }
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            try {
+                return (InetSocketAddress) connection.channel.getRemoteAddress();
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public int getResponseCode() {
+            return code;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return NioHttpServer.this.getAddress();
+        }
+
+        @Override
+        public String getProtocol() {
+            return protocol;
+        }
+
+        @Override
+        public Object getAttribute(String name) {
+            return attributes.get(name);
+        }
+
+        @Override
+        public void setAttribute(String name, Object value) {
+            attributes.put(name, value);
+        }
+
+        @Override
+        public void setStreams(InputStream in, OutputStream out) {
+            if (in != null)
+                input = in;
+            if (out != null)
+                output = out;
+        }
+
+        @Override
+        public HttpPrincipal getPrincipal() {
+            return principal;
+        }
+
+        private synchronized void end() {
+            if (finished)
+                return;
+            finished = true;
+            connection.finish(this, keepAlive && remaining == 0);
+        }
+
+        private final class Body extends OutputStream {
+            private final byte[] buffer = new byte[8 * 1024];
+            private int count = 0;
+            private boolean closed = false;
+
+            @Override
+            public void write(int b) throws IOException {
+                if (count == buffer.length)
+                    flush();
+                buffer[count++] = (byte) b;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (len > buffer.length - count) {
+                    flush();
+                    if (len > buffer.length) {
+                        send(Arrays.copyOfRange(b, off, off + len));
+                        return;
+                    }
+                }
+                System.arraycopy(b, off, buffer, count, len);
+                count += len;
+            }
+
+            @Override
+            public void flush() throws IOException {
+                if (count == 0)
+                    return;
+                byte[] bytes = Arrays.copyOf(buffer, count);
+                count = 0;
+                send(bytes);
+            }
+
+            private void send(byte[] bytes) throws IOException {
+                if (closed)
+                    throw new IOException("response body closed");
+                if (!headersSent)
+                    throw new IOException("response headers not sent");
+                if (remaining == 0)
+                    throw new IOException("more than the response length");
+                if (remaining > 0) {
+                    if (bytes.length > remaining)
+                        throw new IOException("more than the response length");
+                    remaining -= bytes.length;
+                    connection.send(ByteBuffer.wrap(bytes));
+                    return;
+                }
+                byte[] size = (Integer.toHexString(bytes.length) + "\r\n").getBytes(StandardCharsets.US_ASCII);
+                ByteBuffer chunk = ByteBuffer.allocate(size.length + bytes.length + 2);
+                chunk.put(size).put(bytes).put((byte) '\r').put((byte) '\n');
+                connection.send(chunk.flip());
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed)
+                    return;
+                try {
+                    flush();
+                    if (headersSent && remaining < 0)
+                        connection.send(ByteBuffer.wrap("0\r\n\r\n".getBytes(StandardCharsets.US_ASCII)));
+                } finally {
+                    closed = true;
+                    if (!headersSent || remaining > 0) // an answer cut short can't be followed by another
+                        connection.close();
+                    else {
+                        remaining = 0;
+                        end();
+                    }
+                }
+            }
+        }
+    }
+
+    private static String reason(int code) {
+        return switch (code) {
+            case 100 -> "Continue";
+            case 200 -> "OK";
+            case 204 -> "No Content";
+            case 304 -> "Not Modified";
+            case 400 -> "Bad Request";
+            case 401 -> "Unauthorized";
+            case 403 -> "Forbidden";
+            case 404 -> "Not Found";
+            case 405 -> "Method Not Allowed";
+            case 413 -> "Content Too Large";
+            case 431 -> "Request Header Fields Too Large";
+            case 503 -> "Service Unavailable";
+            default -> code < 400 ? "OK" : "Error";
+        };
+    }
+}
+
+// One HTTP server per port, shared by the channels on it. A browser picks its channel
+// with `?channel=` in the page's URL, which it passes on to the event stream and its
+// POSTs; without it, it gets the default channel, which has the empty name.
+class LiveViewServer {
+    final HttpServer server;
+    final ExecutorService executor;
+    final int port;
+    final WebSocketServer webSocket;
+    static final String index = "./web/index.html";
+    static final AssetCache assets = new AssetCache();
+    static Map<Integer, LiveViewServer> servers = new ConcurrentHashMap<>();
+    // executor for the HTTP handlers of servers started afterwards, one thread per request by default
+    static Supplier<ExecutorService> executorFactory = Executors::newVirtualThreadPerTaskExecutor;
+    // NioHttpServer instead of the JDK's server for servers started afterwards
+    static boolean nioCore = false;
+    // the interface servers started afterwards listen on, see `LiveView.setBindAddress`
+    static InetAddress bindAddress = InetAddress.getLoopbackAddress();
+    final InetAddress address;
+    final Map<String, LiveView> channels = new ConcurrentHashMap<>();
+    private final Set<String> routes = ConcurrentHashMap.newKeySet(); // paths with a POST handler
+    static final int maxBodySize = 16 * 1024 * 1024; // of a POST
+
+    static synchronized LiveViewServer onPort(int port) {
+        port = Math.abs(port);
+        try {
+            if (!servers.containsKey(port))
+                servers.put(port, new LiveViewServer(port));
+            return servers.get(port);
+        } catch (IOException e) {
+            System.err.printf("Error starting Server: %s\n", e.getMessage());
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private LiveViewServer(int port) throws IOException {
+        this.port = port;
+        address = bindAddress;
+        InetSocketAddress socketAddress = new InetSocketAddress(address, port);
+        server = nioCore ? new NioHttpServer(socketAddress, maxBodySize) : HttpServer.create(socketAddress, 0);
+        System.out.println("Open http://localhost:" + port + " in your browser");
+
+        // loaded-Request to signal successful processing of SSEType.LOAD
+        route("/loaded");
+        // the browser's event backlog, see `LiveView.setBacklogLimit`
+        route("/backlog");
+        // the last ACK the browser ran, see `LiveView.sendAcknowledged`
+        route("/ack");
+        // the browser's timings of traced events, see Tracer
+        route("/trace");
+
+        // WebSocket negotiation: the browser asks for the port and falls back to SSE if it fails
+        webSocket = new WebSocketServer(this);
+        server.createContext("/websocket", exchange -> {
+            if (!exchange.getRequestMethod().equalsIgnoreCase("get")) {
+                exchange.sendResponseHeaders(405, -1); // Method Not Allowed
+                return;
+            }
+            byte[] webSocketPort = Integer.toString(webSocket.port()).getBytes(StandardCharsets.US_ASCII);
+            exchange.getResponseHeaders().add("Content-Type", "text/plain");
+            exchange.sendResponseHeaders(200, webSocketPort.length);
+            exchange.getResponseBody().write(webSocketPort);
+            exchange.close();
+        });
+
+        // SSE context
+        server.createContext("/events", exchange -> {
+            if (!exchange.getRequestMethod().equalsIgnoreCase("get")) {
+                exchange.sendResponseHeaders(405, -1); // Method Not Allowed
+                return;
+            }
+            // `?format=binary` streams length-prefixed frames for `fetch` instead of SSE,
+            // `?lastEventId=` or the header sent by a reconnecting EventSource resumes a stream,
+            // `?client=` identifies the browser
+            String query = exchange.getRequestURI().getRawQuery();
+            LiveView view = existingChannel(queryParameter(query, "channel"));
+            if (view == null) {
+                exchange.sendResponseHeaders(404, -1); // Not Found
+                return;
+            }
+            boolean binary = "binary".equals(queryParameter(query, "format"));
+            String lastEventId = exchange.getRequestHeaders().getFirst("Last-Event-ID");
+            if (lastEventId == null)
+                lastEventId = queryParameter(query, "lastEventId");
+            String encoding = view.compression ? encoding(exchange.getRequestHeaders().getFirst("Accept-Encoding")) : null;
+            exchange.getResponseHeaders().add("Content-Type", binary ? "application/octet-stream" : "text/event-stream");
+            exchange.getResponseHeaders().add("Cache-Control", "no-cache");
+            exchange.getResponseHeaders().add("Connection", "keep-alive");
+            if (encoding != null)
+                exchange.getResponseHeaders().add("Content-Encoding", encoding);
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = encode(exchange.getResponseBody(), encoding);
+            view.addClient(queryParameter(query, "client"), parseEventId(lastEventId), replay -> new SSEClient(out,
+                    view.queueCapacity, binary ? ServerEvent::binaryFrame : ServerEvent::sseFrame, replay,
+                    binary ? ServerEvent.binaryHeartbeat : ServerEvent.sseHeartbeat, view.heartbeatMillis, client -> {
+                        try {
+                            out.close(); // releases the compressor
+                        } catch (IOException e) {
+                            // the connection is gone already
+                        }
+                        exchange.close();
+                        view.removeClient(client);
+                    }));
+        });
+
+        // statistics of all channels, `?format=json` for a snapshot a view can render
+        server.createContext("/metrics", exchange -> {
+            if (!exchange.getRequestMethod().equalsIgnoreCase("get")) {
+                exchange.sendResponseHeaders(405, -1); // Method Not Allowed
+                return;
+            }
+            boolean json = "json".equals(queryParameter(exchange.getRequestURI().getRawQuery(), "format"));
+            byte[] body = (json ? Metrics.json(channels.values()) : Metrics.prometheus(channels.values()))
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", json ? "application/json" : "text/plain; version=0.0.4");
+            exchange.getResponseHeaders().add("Cache-Control", "no-cache");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+
+        // entries of the output log a browser evicted, `?keys=` separated by ',', see `LiveView.history`
+        server.createContext("/history", exchange -> {
+            if (!exchange.getRequestMethod().equalsIgnoreCase("get")) {
+                exchange.sendResponseHeaders(405, -1); // Method Not Allowed
+                return;
+            }
+            String query = exchange.getRequestURI().getRawQuery();
+            String keys = queryParameter(query, "keys");
+            List<String> keyList = keys == null || keys.isEmpty() ? List.of() : List.of(keys.split(","));
+            if (keyList.isEmpty() || keyList.size() > 1_000) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            LiveView view = existingChannel(queryParameter(query, "channel"));
+            if (view == null) {
+                exchange.sendResponseHeaders(404, -1); // Not Found
+                return;
+            }
+            byte[] body = view.history(keyList).getBytes(StandardCharsets.US_ASCII);
+            exchange.getResponseHeaders().add("Content-Type", "text/plain");
+            exchange.getResponseHeaders().add("Cache-Control", "no-cache");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+
+        // initial html site and all other static files, served from memory
+        server.createContext("/", exchange -> {
+            if (exchange.getRequestMethod().equalsIgnoreCase("post")) { // input a relay forwards
+                post(exchange.getRequestURI().getPath(), exchange);
+                return;
+            }
+            if (!exchange.getRequestMethod().equalsIgnoreCase("get")) {
+                exchange.sendResponseHeaders(405, -1); // Method Not Allowed
+                return;
+            }
+            final Path path = Path.of(exchange.getRequestURI().getPath().equals("/") ? index
+                    : "." + exchange.getRequestURI().getPath()).normalize();
+            try {
+                if (path.startsWith("..") || !Files.isRegularFile(path)) {
+                    exchange.sendResponseHeaders(404, -1); // Not Found
+                    return;
+                }
+                final AssetCache.Asset asset = assets.get(path);
+                final Headers headers = exchange.getResponseHeaders();
+                byte[] bytes = asset.bytes();
+                String encoding = null;
+                final String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                if (acceptEncoding != null && asset.gzip() != null && acceptEncoding.contains("gzip")) {
+                    encoding = "gzip";
+                    bytes = asset.gzip();
+                } else if (acceptEncoding != null && asset.deflate() != null && acceptEncoding.contains("deflate")) {
+                    encoding = "deflate";
+                    bytes = asset.deflate();
+                }
+                headers.add("Content-Type", asset.contentType());
+                headers.add("ETag", asset.etag(encoding));
+                headers.add("Cache-Control", AssetCache.isVersioned(path) ? "public, max-age=31536000, immutable" : "no-cache");
+                headers.add("Vary", "Accept-Encoding");
+                final String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+                if (ifNoneMatch != null && ifNoneMatch.contains(asset.etag(encoding))) {
+                    exchange.sendResponseHeaders(304, -1); // Not Modified
+                    return;
+                }
+                if (encoding != null)
+                    headers.add("Content-Encoding", encoding);
+                exchange.sendResponseHeaders(200, bytes.length);
+                exchange.getResponseBody().write(bytes);
+                exchange.getResponseBody().flush();
+            } finally {
+                exchange.close();
+            }
+        });
+
+        channel(""); // the page without `?channel=`
+        executor = executorFactory.get();
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    // the channel named `name`, created on first use by Java
+    LiveView channel(String name) {
+        return channels.computeIfAbsent(name == null ? "" : name, n -> new LiveView(this, n));
+    }
+
+    // Requests only look channels up: each one has its own log, scheduler and metrics,
+    // a browser naming any channel it likes mustn't create them.
+    LiveView existingChannel(String name) {
+        return channels.get(name == null ? "" : name);
+    }
+
+    // POSTs to `path` go to the response context the channel registered for it
+    void route(String path) {
+        if (!routes.add(path))
+            return;
+        server.createContext(path, exchange -> {
+            if (!exchange.getRequestMethod().equalsIgnoreCase("post")) {
+                exchange.sendResponseHeaders(405, -1); // Method Not Allowed
+                return;
+            }
+            post(path, exchange);
+        });
+    }
+
+    private void post(String path, HttpExchange exchange) throws IOException {
+        // without a Content-length (chunked transfer encoding) the body is read up to its end
+        String content_length = exchange.getRequestHeaders().getFirst("Content-length");
+        try {
+            RequestBody body;
+            try {
+                body = RequestBody.read(exchange.getRequestBody(),
+                        content_length == null ? -1 : Long.parseLong(content_length), maxBodySize);
+            } catch (EOFException e) {
+                exchange.sendResponseHeaders(400, -1); // cut short
+                return;
+            } catch (IOException e) {
+                exchange.sendResponseHeaders(413, -1); // Content Too Large
+                return;
+            }
+            LiveView view = existingChannel(queryParameter(exchange.getRequestURI().getRawQuery(), "channel"));
+            if (view == null) {
+                exchange.sendResponseHeaders(404, -1); // Not Found
+                return;
+            }
+            ResponseContext context = view.responseContexts.get(path);
+            BiConsumer<String, RequestBody> forward = view.forward;
+            if (context == null && forward != null) {
+                forward.accept(path, body);
+            } else if (context == null) {
+                exchange.sendResponseHeaders(404, -1); // Not Found
+                return;
+            } else if (!context.handle(body)) {
+                exchange.sendResponseHeaders(503, -1); // Service Unavailable
+                return;
+            }
+        } catch (NumberFormatException e) {
+            exchange.sendResponseHeaders(400, -1);
+            return;
+        }
+
+        exchange.sendResponseHeaders(200, 0);
+        exchange.close();
+    }
+
+    static String queryParameter(String query, String name) {
+        if (query == null)
+            return null;
+        for (String parameter : query.split("&")) {
+            int splitPos = parameter.indexOf('=');
+            if (splitPos > 0 && parameter.substring(0, splitPos).equals(name))
+                return URLDecoder.decode(parameter.substring(splitPos + 1), StandardCharsets.UTF_8);
+        }
+        return null;
+    }
+
+    // gzip or deflate if `acceptEncoding` allows it, null otherwise
+    static String encoding(String acceptEncoding) {
+        if (acceptEncoding == null)
+            return null;
+        List<String> accepted = new ArrayList<>();
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            if (parts.length > 1 && parts[1].trim().matches("q=0(\\.0*)?"))
+                continue; // not acceptable
+            accepted.add(parts[0].trim().toLowerCase());
+        }
+        return accepted.contains("gzip") ? "gzip" : accepted.contains("deflate") ? "deflate" : null;
+    }
+
+    // The compressor keeps its window across events, so repeated text in later events is
+    // encoded as a back-reference. Every flush of the SSEClient, after each burst of
+    // events, is a sync flush: the browser can decode all events sent so far.
+    static OutputStream encode(OutputStream out, String encoding) throws IOException {
+        if (encoding == null)
+            return out;
+        return encoding.equals("gzip") ? new GZIPOutputStream(out, 8192, true) : new DeflaterOutputStream(out, true);
+    }
+
+    static long parseEventId(String id) {
+        try {
+            return id == null ? 0 : Math.max(0, Long.parseLong(id.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    void stop() {
+        channels.values().forEach(LiveView::close);
+        channels.clear();
+        webSocket.stop();
+        servers.remove(port);
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    static void shutdown() {
+        servers.forEach((k, v) -> v.stop());
+    }
+}
+
+// A channel: the browsers subscribed to it, the events sent to them and the delegates
+// of their input. Channels are cheap, many of them share one LiveViewServer.
+class LiveView {
+    final LiveViewServer server;
+    final String channel;
+    final int port;
+    static int defaultPort = 50_001;
+
+    static void setDefaultPort(int port) {
+        defaultPort = port != 0 ? Math.abs(port) : 50_001;
+    }
+
+    static int getDefaultPort() {
+        return defaultPort;
+    }
+
+    static void setExecutorFactory(Supplier<ExecutorService> factory) {
+        LiveViewServer.executorFactory = factory;
+    }
+
+    // one selector thread for all connections instead of a thread per open stream
+    static void setNioCore(boolean on) {
+        LiveViewServer.nioCore = on;
+    }
+
+    // The interface servers started afterwards listen on, the loopback interface by
+    // default. "0.0.0.0" serves other machines too, the browsers of a Relay, say; anyone
+    // who reaches the port can then watch the view and send it input.
+    static void setBindAddress(String host) throws UnknownHostException {
+        LiveViewServer.bindAddress = InetAddress.getByName(host);
+    }
+
+    Set<SSEClient> sseClientConnections = ConcurrentHashMap.newKeySet(); // O(1) to add and remove
+    final Metrics metrics = new Metrics();
+    final Tracer tracer = new Tracer();
+    // delegates of `createResponseContext`, reachable via HTTP POST and WebSocket
+    Map<String, ResponseContext> responseContexts = new ConcurrentHashMap<>();
+    // input no response context is registered for, by path; a Relay sends it upstream
+    volatile BiConsumer<String, RequestBody> forward = null;
+    volatile OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+    volatile int queueCapacity = 1_024; // messages per client, applies to new connections
+
+    LiveView setOverflowPolicy(OverflowPolicy policy, int queueCapacity) {
+        overflowPolicy = policy;
+        this.queueCapacity = Math.max(1, queueCapacity);
+        return this;
+    }
+
+    // idle connections get a heartbeat this often, applies to new connections; 0: none
+    volatile long heartbeatMillis = 15_000;
+
+    LiveView setHeartbeat(long millis) {
+        heartbeatMillis = Math.max(0, millis);
+        return this;
+    }
+
+    // `/events` is compressed if the browser accepts it, applies to new connections
+    volatile boolean compression = true;
+
+    LiveView setCompression(boolean compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    // Browsers keep at most `scrollback` WRITEs in the page, 0: all of them. Those farther
+    // from the viewport are evicted and fetched back from the event log when scrolled to,
+    // see `history` and web/script.js. A WRITE the log has dropped meanwhile is gone.
+    static final int defaultScrollback = 1_000; // as in web/script.js
+    volatile int scrollback = defaultScrollback;
+
+    LiveView setScrollback(int entries) {
+        broadcastSetting(() -> {
+            scrollback = Math.max(0, entries);
+            return scrollbackSetting();
+        });
+        return this;
+    }
+
+    private ServerEvent scrollbackSetting() { // not logged, each connection gets the current one
+        return new ServerEvent(SSEType.CALL, "Clerk.setScrollback(" + scrollback + ");");
+    }
+
+    // The WRITEs a browser evicted, by keys `<event id>.<index of the WRITE in the event>`:
+    // a line `<key> <Base64 HTML>` for each, just `<key>` if the log no longer has it.
+    String history(List<String> keys) {
+        Set<Long> ids = new HashSet<>();
+        for (String key : keys)
+            ids.add(LiveViewServer.parseEventId(key.substring(0, Math.max(0, key.indexOf('.')))));
+        ids.remove(0L);
+        Map<Long, ServerEvent> events = eventLog.get(ids);
+        StringBuilder lines = new StringBuilder();
+        for (String key : keys) {
+            int splitPos = key.indexOf('.');
+            ServerEvent event = splitPos < 0 ? null : events.get(LiveViewServer.parseEventId(key.substring(0, splitPos)));
+            byte[] html = null;
+            try {
+                html = event == null ? null : write(event, Integer.parseInt(key.substring(splitPos + 1)));
+            } catch (NumberFormatException e) {
+                // not a key of ours
+            }
+            lines.append(key.replaceAll("[^0-9.]", ""));
+            if (html != null)
+                lines.append(' ').append(Base64.getEncoder().encodeToString(html));
+            lines.append('\n');
+        }
+        return lines.toString();
+    }
+
+    // the body of the WRITE number `index` in a WRITE or BATCH `[u8 type][u32 length][body]...`
+    private static byte[] write(ServerEvent event, int index) {
+        if (event.type == SSEType.WRITE)
+            return index == 0 ? event.body : null;
+        if (event.type != SSEType.BATCH)
+            return null;
+        ByteBuffer batch = ByteBuffer.wrap(event.body);
+        while (batch.hasRemaining()) {
+            SSEType type = SSEType.values()[batch.get()];
+            int length = batch.getInt();
+            if (type == SSEType.WRITE && index-- == 0)
+                return Arrays.copyOfRange(event.body, batch.position(), batch.position() + length);
+            batch.position(batch.position() + length);
+        }
+        return null;
+    }
+
+    // Flow control: browsers run the events once per animation frame and report how many
+    // are waiting. While one of them is more than `backlogLimit` events behind, events are
+    // batched as if auto-batching was on, and under OverflowPolicy.BLOCK producers wait
+    // until it is down to half of that. A producer waits at most `backlogStallMillis`, so
+    // a browser that stops reporting holds it up only until then. Interactive events
+    // never wait, they are what a browser that is behind needs first.
+    volatile int backlogLimit = 5_000;
+    volatile long backlogStallMillis = 1_000;
+    static final long coalesceMillis = 16; // about one animation frame
+    private final Object backlogLock = new Object();
+    private volatile boolean behind = false;
+
+    LiveView setBacklogLimit(int events, long stallMillis) {
+        backlogLimit = Math.max(1, events);
+        backlogStallMillis = Math.max(0, stallMillis);
+        updateBacklog();
+        return this;
+    }
+
+    private void backlog(String body) {
+        int splitPos = body.indexOf('\n');
+        if (splitPos < 0)
+            return;
+        String client = body.substring(0, splitPos);
+        int backlog;
+        try {
+            backlog = Math.max(0, Integer.parseInt(body.substring(splitPos + 1).trim()));
+        } catch (NumberFormatException e) {
+            return;
+        }
+        for (SSEClient connection : sseClientConnections)
+            if (connection.id.equals(client))
+                connection.backlog = backlog;
+        updateBacklog();
+    }
+
+    private void updateBacklog() {
+        synchronized (backlogLock) {
+            int max = sseClientConnections.stream().mapToInt(c -> c.backlog).max().orElse(0);
+            behind = max > (behind ? backlogLimit / 2 : backlogLimit);
+            if (!behind)
+                backlogLock.notifyAll();
+        }
+    }
+
+    private void awaitBrowsers() {
+        synchronized (backlogLock) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backlogStallMillis);
+            try {
+                for (long left; behind && (left = deadline - System.nanoTime()) > 0;)
+                    TimeUnit.NANOSECONDS.timedWait(backlogLock, left);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (behind) { // no report in time, the next one tells if the browser is still behind
+                behind = false;
+                backlogLock.notifyAll();
+            }
+        }
+    }
+
+    boolean behind() {
+        return behind;
+    }
+
+    // Batching: WRITE, CALL, SCRIPT and DATA events are collected and sent as one
+    // BATCH event, inside of `Clerk.batch` or all the time if auto-batching is on.
+    // A batch is flushed when it reaches `batchBytes`, when its deadline passes
+    // (auto-batching only), or before any other event type to keep the order.
+    // `Clerk.batch` collects the events of its own thread only: the handlers of input,
+    // the scheduler and Diagnostics send theirs meanwhile. Auto-batching is shared.
+    // Each channel has a scheduler of its own: a flush blocked by a slow browser of
+    // one channel mustn't hold back the deadlines of the others.
+    // The lock isn't a monitor either: a virtual thread blocked in a flush would pin its
+    // carrier, all carriers on a small machine.
+    final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().factory());
+    private final ReentrantLock batchLock = new ReentrantLock();
+    private EventBatch batch = new EventBatch(); // auto-batching
+    private final ThreadLocal<OpenBatch> openBatch = new ThreadLocal<>(); // `Clerk.batch`
+    volatile int batchBytes = 1 << 20;
+    volatile long autoBatchMillis = 0; // 0 = auto-batching off
+
+    LiveView setAutoBatching(int maxBytes, long maxDelayMillis) {
+        batchBytes = Math.max(1, maxBytes);
+        autoBatchMillis = Math.max(0, maxDelayMillis);
+        if (autoBatchMillis == 0)
+            flushBatch();
+        return this;
+    }
+
+    private static final class OpenBatch {
+        int depth = 0; // nested `Clerk.batch` calls
+        EventBatch events = new EventBatch();
+    }
+
+    void beginBatch() {
+        OpenBatch open = openBatch.get();
+        if (open == null)
+            openBatch.set(open = new OpenBatch());
+        open.depth++;
+    }
+
+    void endBatch() {
+        OpenBatch open = openBatch.get();
+        if (open == null || --open.depth > 0)
+            return;
+        openBatch.remove();
+        flush(open);
+    }
+
+    // after the auto-batched events, which may hold earlier ones of this thread
+    private void flush(OpenBatch open) {
+        batchLock.lock();
+        try {
+            flushBatch();
+            if (!open.events.isEmpty())
+                broadcast(open.events.toEvent());
+            open.events = new EventBatch();
+        } finally {
+            batchLock.unlock();
+        }
+    }
+
+    void flushBatch() {
+        batchLock.lock();
+        try {
+            if (batch.isEmpty())
+                return;
+            ServerEvent event = batch.toEvent();
+            batch = new EventBatch();
+            broadcast(event);
+        } finally {
+            batchLock.unlock();
+        }
+    }
+
+    // replayed to clients that connect later or reconnect, see `addClient`
+    final EventLog eventLog = new EventLog(100_000, 64 * 1024 * 1024);
+
+    LiveView setEventLog(int maxEvents, long maxBytes) {
+        eventLog.setLimits(maxEvents, maxBytes);
+        return this;
+    }
+
+    // Scripts requested by `load`. A script is loaded once each browser that was connected
+    // when its LOAD was sent has acknowledged it or disconnected; browsers connecting later
+    // get the LOAD from the event log. Browsers load scripts in parallel, after their dependencies.
+    record Script(String key, Set<SSEClient> pending, CompletableFuture<Void> loaded) {}
+    final Map<String, Script> scripts = new ConcurrentHashMap<>();
+    volatile long loadTimeoutMillis = 10_000;
+
+    // Events sent by `sendAcknowledged`, by the number of the ACK following them. An ACK is
+    // complete once each browser connected when it was sent has run it or disconnected.
+    // Browsers report the last ACK they ran at most once per frame, which confirms all
+    // earlier ones, so ACKs go out in the order of their numbers and on the bulk lane only;
+    // an ACK that isn't complete after `ackTimeoutMillis` fails. Pending are connections,
+    // not browsers: an ACK sent over a connection that closed is never run, not even by
+    // the browser reconnecting, since ACKs aren't logged.
+    record Ack(Set<SSEClient> pending, CompletableFuture<Void> done) {}
+    private final ConcurrentSkipListMap<Long, Ack> acks = new ConcurrentSkipListMap<>();
+    private final ReentrantLock acking = new ReentrantLock();
+    private long lastAck = 0; // guarded by `acking`
+    volatile long ackTimeoutMillis = 10_000;
+
+    // the last HTML of each region, forgotten with a CLEAR, which removes the regions from the page
+    private final Map<String, String> regions = new HashMap<>();
+
+    // commands by name, see `command`
+    private final Map<String, Command> commands = new ConcurrentHashMap<>();
+
+    static LiveView onPort(int port) {
+        return onPort(port, "");
+    }
+
+    static LiveView onPort() {
+        return onPort(defaultPort);
+    }
+
+    static LiveView onPort(int port, String channel) {
+        LiveViewServer server = LiveViewServer.onPort(port);
+        if (server == null)
+            return null;
+        if (!channel.isEmpty() && !server.channels.containsKey(channel))
+            System.out.println("Open http://localhost:" + server.port + "/?channel="
+                    + URLEncoder.encode(channel, StandardCharsets.UTF_8) + " in your browser");
+        return server.channel(channel);
+    }
+
+    LiveView(LiveViewServer server, String channel) {
+        this.server = server;
+        this.channel = channel;
+        port = server.port;
+        // body: client id and the script's key, one per line
+        responseContexts.put("/loaded", ResponseContext.ofText(this::loaded));
+        // body: client id and the number of events waiting in the browser
+        responseContexts.put("/backlog", ResponseContext.ofText(this::backlog));
+        // body: client id and the number of the last ACK it ran
+        responseContexts.put("/ack", ResponseContext.ofText(this::acknowledged));
+        // body: client id, then `<id> <received> <queue> <run>` per traced event
+        responseContexts.put("/trace", ResponseContext.ofText(tracer::report));
+    }
+
+    // Registers the client created by `client`, which first gets the events after
+    // `lastEventId` from the log. Holding the log meanwhile, no event is missed or sent
+    // twice: later broadcasts count the client in, see `offer`.
+    SSEClient addClient(String id, long lastEventId, Function<List<ServerEvent>, SSEClient> client) {
+        synchronized (eventLog) {
+            List<ServerEvent> replay = eventLog.since(lastEventId);
+            if (scrollback != defaultScrollback) { // before the replay, which it applies to
+                replay = new ArrayList<>(replay);
+                replay.add(0, scrollbackSetting());
+            }
+            if (tracer.on) { // after the replay, which would only distort the timings
+                replay = new ArrayList<>(replay);
+                replay.add(Tracer.enable(true));
+            }
+            SSEClient connection = client.apply(replay);
+            connection.id = id == null ? "" : id;
+            connection.tracer = tracer;
+            sseClientConnections.add(connection);
+            return connection;
+        }
+    }
+
+    // A closed connection no longer holds up the LOADs and ACKs sent over it, also when
+    // its browser has reconnected meanwhile: it reports on the new connection.
+    void removeClient(SSEClient connection) {
+        if (sseClientConnections.remove(connection))
+            metrics.removed(connection);
+        if (connection.backlog > 0)
+            updateBacklog();
+        scripts.values().forEach(script -> acknowledge(script, c -> c == connection));
+        acks.values().forEach(ack -> acknowledge(ack, c -> c == connection));
+    }
 
-enum SSEType {
-    WRITE, CALL, SCRIPT, LOAD, CLEAR, RELEASE;
-}
+    private void loaded(String body) {
+        int splitPos = body.indexOf('\n');
+        if (splitPos < 0)
+            return;
+        String client = body.substring(0, splitPos);
+        Script script = scripts.get(body.substring(splitPos + 1).trim());
+        if (script != null)
+            acknowledge(script, c -> c.id.equals(client));
+    }
 
-class LiveView {
-    final HttpServer server;
-    final int port;
-    static int defaultPort = 50_001;
-    static final String index = "./web/index.html";
-    static Map<Integer, LiveView> views = new ConcurrentHashMap<>();
-    List<String> paths = new ArrayList<>();
+    private static void acknowledge(Script script, Predicate<SSEClient> done) {
+        if (script.pending().removeIf(done) && script.pending().isEmpty())
+            script.loaded().complete(null);
+    }
 
-    static void setDefaultPort(int port) {
-        defaultPort = port != 0 ? Math.abs(port) : 50_001;
+    // Sends `event` and returns a future completed once the browsers have run it,
+    // see `Ack`. Producers can pace themselves on it instead of sleeping.
+    CompletableFuture<Void> sendAcknowledged(ServerEvent event) {
+        sendServerEvent(event);
+        return acknowledge();
     }
 
-    static int getDefaultPort() {
-        return defaultPort;
+    // An ACK behind everything sent so far. An interactive event is run by then, too: it
+    // overtakes the bulk lane, it isn't overtaken.
+    CompletableFuture<Void> acknowledge() {
+        acking.lock();
+        try {
+            return acknowledge(++lastAck);
+        } finally {
+            acking.unlock();
+        }
     }
 
-    List<HttpExchange> sseClientConnections;
+    // Registered before the connections are counted in, so `removeClient` sees the ACK
+    // of any connection that closes meanwhile; one that closed before it was added is
+    // no longer connected and taken out again.
+    private CompletableFuture<Void> acknowledge(long number) {
+        Ack ack = new Ack(ConcurrentHashMap.newKeySet(), new CompletableFuture<>());
+        acks.put(number, ack);
+        for (SSEClient connection : sseClientConnections)
+            if (!connection.id.isEmpty())
+                ack.pending().add(connection);
+        ack.pending().removeIf(connection -> !sseClientConnections.contains(connection));
+        long start = System.nanoTime();
+        ack.done().orTimeout(ackTimeoutMillis, TimeUnit.MILLISECONDS).whenComplete((result, e) -> {
+            acks.remove(number);
+            if (e == null)
+                metrics.ackWait.record(System.nanoTime() - start);
+            else
+                metrics.ackTimeouts.increment();
+        });
+        sendServerEvent(new ServerEvent(SSEType.ACK, Long.toString(number)));
+        if (ack.pending().isEmpty())
+            ack.done().complete(null);
+        return ack.done();
+    }
+
+    // Traces the events from now on, see Tracer. The browsers are switched with an
+    // event of their own, which isn't logged.
+    LiveView setTracing(boolean on) {
+        broadcastSetting(() -> {
+            if (tracer.on == on)
+                return null;
+            tracer.on = on;
+            return Tracer.enable(on);
+        });
+        return this;
+    }
 
-    // lock required to temporarily block processing of `SSEType.LOAD`
-    Lock lock = new ReentrantLock();
-    Condition loadEventOccurredCondition = lock.newCondition();
-    boolean loadEventOccured = false;
+    LiveView setAckTimeout(long millis) {
+        ackTimeoutMillis = Math.max(1, millis);
+        return this;
+    }
 
-    static LiveView onPort(int port) {
-        port = Math.abs(port);
+    private void acknowledged(String body) {
+        int splitPos = body.indexOf('\n');
+        if (splitPos < 0)
+            return;
+        long number;
         try {
-            if (!views.containsKey(port))
-                views.put(port, new LiveView(port));
-            return views.get(port);
-        } catch (IOException e) {
-            System.err.printf("Error starting Server: %s\n", e.getMessage());
-            e.printStackTrace();
-            return null;
+            number = Long.parseLong(body.substring(splitPos + 1).trim());
+        } catch (NumberFormatException e) {
+            return;
         }
+        String client = body.substring(0, splitPos);
+        acks.headMap(number, true).values().forEach(ack -> acknowledge(ack, c -> c.id.equals(client)));
     }
 
-    static LiveView onPort() {
-        return onPort(defaultPort);
+    private static void acknowledge(Ack ack, Predicate<SSEClient> done) {
+        if (ack.pending().removeIf(done) && ack.pending().isEmpty())
+            ack.done().complete(null);
     }
 
-    private LiveView(int port) throws IOException {
-        this.port = port;
-        sseClientConnections = new CopyOnWriteArrayList<>(); // thread-safe variant of ArrayList
+    // Sends a LOAD unless the script is already loaded or being loaded. The browser loads
+    // it after the scripts in `dependencies`, which are given by one of their paths.
+    CompletableFuture<Void> load(String path, List<String> dependencies) {
+        String key = path.trim();
+        boolean[] requested = { false };
+        Script script = scripts.compute(key, (k, known) -> {
+            if (known != null && !known.loaded().isCompletedExceptionally())
+                return known;
+            requested[0] = true;
+            return new Script(k, ConcurrentHashMap.newKeySet(), new CompletableFuture<>());
+        });
+        if (!requested[0])
+            return script.loaded();
+        long start = System.nanoTime();
+        script.loaded().orTimeout(loadTimeoutMillis, TimeUnit.MILLISECONDS).whenComplete((result, e) -> {
+            if (e == null) {
+                metrics.loadWait.record(System.nanoTime() - start);
+            } else {
+                metrics.loadTimeouts.increment();
+                System.err.println("LOAD-Timeout: " + key);
+            }
+        });
+        sendServerEvent(SSEType.LOAD, dependencies.isEmpty() ? key : key + "\n" + String.join("\n", dependencies));
+        return script.loaded();
+    }
 
-        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
-        System.out.println("Open http://localhost:" + port + " in your browser");
+    // messages arriving over the WebSocket are handled like a POST to `path`
+    void dispatch(String path, RequestBody data) {
+        ResponseContext context = responseContexts.get(path);
+        BiConsumer<String, RequestBody> forward = this.forward;
+        if (context == null && forward != null) {
+            forward.accept(path, data);
+            return;
+        }
+        if (context == null) {
+            System.err.println("No response context for WebSocket message to " + path);
+            return;
+        }
+        server.executor.execute(() -> {
+            if (!context.handle(data))
+                System.err.println("Response context busy, message dropped: " + path);
+        });
+    }
 
-        // loaded-Request to signal successful processing of SSEType.LOAD
-        server.createContext("/loaded", exchange -> {
-            if (!exchange.getRequestMethod().equalsIgnoreCase("post")) {
-                exchange.sendResponseHeaders(405, -1); // Method Not Allowed
+    void sendServerEvent(SSEType sseType, String data) {
+        sendServerEvent(new ServerEvent(sseType, data));
+    }
+
+    void sendServerEvent(ServerEvent event) {
+        if (event.type == SSEType.CLEAR)
+            synchronized (regions) {
+                regions.clear();
+            }
+        if (event.interactive) { // overtakes batched events and a backlog as it overtakes queued ones
+            broadcast(event);
+            return;
+        }
+        if (behind && overflowPolicy == OverflowPolicy.BLOCK)
+            awaitBrowsers();
+        OpenBatch open = openBatch.get();
+        if (open != null) {
+            if (EventBatch.accepts(event.type)) {
+                open.events.add(event);
+                if (open.events.size() >= batchBytes)
+                    flush(open);
                 return;
             }
-            exchange.sendResponseHeaders(200, 0);
-            exchange.close();
-            lock.lock();
-            try { // try/finally pattern for locks
-                loadEventOccured = true;
-                loadEventOccurredCondition.signalAll();
-            } finally {
-                lock.unlock();
+            flush(open);
+        }
+        long batchMillis = autoBatchMillis > 0 ? autoBatchMillis : behind ? coalesceMillis : 0;
+        batchLock.lock();
+        try {
+            if (batchMillis > 0 || !batch.isEmpty()) {
+                if (EventBatch.accepts(event.type) && batchMillis > 0
+                        && (!batch.isEmpty() || scheduleFlush(batchMillis))) {
+                    batch.add(event);
+                    if (batch.size() >= batchBytes)
+                        flushBatch();
+                    return;
+                }
+                flushBatch();
             }
-        });
+        } finally {
+            batchLock.unlock();
+        }
+        broadcast(event);
+    }
 
-        // SSE context
-        server.createContext("/events", exchange -> {
-            if (!exchange.getRequestMethod().equalsIgnoreCase("get")) {
-                exchange.sendResponseHeaders(405, -1); // Method Not Allowed
-                return;
-            }
-            exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
-            exchange.getResponseHeaders().add("Cache-Control", "no-cache");
-            exchange.getResponseHeaders().add("Connection", "keep-alive");
-            exchange.sendResponseHeaders(200, 0);
-            sseClientConnections.add(exchange);
-        });
+    // false once the channel is closed, its events then go out unbatched
+    private boolean scheduleFlush(long delayMillis) {
+        try {
+            scheduler.schedule(this::flushBatch, delayMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
 
-        // initial html site
-        server.createContext("/", exchange -> {
-            if (!exchange.getRequestMethod().equalsIgnoreCase("get")) {
-                exchange.sendResponseHeaders(405, -1); // Method Not Allowed
+    // Sets the content of the region `key`, which is appended to the page on first use.
+    // Only what lies between the common prefix and suffix of the old and the new HTML is
+    // sent, as PATCH `key\n<start> <removed> <old length>\n<inserted>`; `removed` is -1
+    // when the whole content is sent. Positions count UTF-16 units, as in JavaScript.
+    void updateRegion(String key, String html) {
+        if (key.indexOf('\n') >= 0)
+            throw new IllegalArgumentException("region key with a line break: " + key);
+        synchronized (regions) { // patches go out in the order of the updates
+            String old = regions.put(key, html);
+            if (old == null) {
+                sendServerEvent(SSEType.PATCH, key + "\n0 -1 0\n" + html);
                 return;
             }
-            final String path = exchange.getRequestURI().getPath().equals("/") ? index
-                    : "." + exchange.getRequestURI().getPath();
-            try (final InputStream stream = new FileInputStream(path)) {
-                final byte[] bytes = stream.readAllBytes();
-                exchange.getResponseHeaders().add("Content-Type",
-                        Files.probeContentType(Path.of(path)) + "; charset=utf-8");
-                exchange.sendResponseHeaders(200, bytes.length);
-                exchange.getResponseBody().write(bytes);
-                exchange.getResponseBody().flush();
-            } finally {
-                exchange.close();
-            }
-        });
+            if (old.equals(html))
+                return;
+            int max = Math.min(old.length(), html.length());
+            int prefix = 0;
+            while (prefix < max && old.charAt(prefix) == html.charAt(prefix))
+                prefix++;
+            int suffix = 0;
+            while (suffix < max - prefix && old.charAt(old.length() - 1 - suffix) == html.charAt(html.length() - 1 - suffix))
+                suffix++;
+            if (prefix > 0 && Character.isHighSurrogate(html.charAt(prefix - 1))) // don't split a surrogate pair
+                prefix--;
+            if (suffix > 0 && Character.isLowSurrogate(html.charAt(html.length() - suffix)))
+                suffix--;
+            sendServerEvent(SSEType.PATCH, key + "\n" + prefix + " " + (old.length() - prefix - suffix) + " " + old.length()
+                    + "\n" + html.substring(prefix, html.length() - suffix));
+        }
+    }
 
-        server.setExecutor(Executors.newFixedThreadPool(5));
-        server.start();
+    private void broadcast(ServerEvent event) {
+        Script script = null;
+        long number;
+        List<SSEClient> connections;
+        synchronized (eventLog) {
+            if (event.type != SSEType.RELEASE && event.type != SSEType.ACK) // meant for the browsers connected now
+                event = eventLog.append(event);
+            metrics.sent(event);
+            if (tracer.on && event.id > 0)
+                tracer.broadcast(event);
+            if (event.type == SSEType.LOAD)
+                script = scripts.get(event.data().lines().findFirst().orElse(""));
+            number = ++numbered;
+            connections = List.copyOf(sseClientConnections);
+        }
+        offer(number, connections, event, script);
+        if (script != null && script.pending().isEmpty())
+            script.loaded().complete(null);
     }
 
-    void sendServerEvent(SSEType sseType, String data) {
-        List<HttpExchange> deadConnections = new ArrayList<>();
-        for (HttpExchange connection : sseClientConnections) {
-            if (sseType == SSEType.LOAD)
-                lock.lock();
-            try {
-                byte[] binaryData = data.getBytes(StandardCharsets.UTF_8);
-                String base64Data = Base64.getEncoder().encodeToString(binaryData);
-                String message = "data: " + sseType + ":" + base64Data + "\n\n";
-                connection.getResponseBody()
-                        .write(message.getBytes());
-                connection.getResponseBody().flush();
-                if (sseType == SSEType.LOAD && !loadEventOccured) {
-                    loadEventOccurredCondition.await(1_000, TimeUnit.MILLISECONDS);
-                    if (loadEventOccured)
-                        paths.add(data);
-                    else
-                        System.err.println("LOAD-Timeout: " + data);
-                }
-            } catch (IOException e) {
-                deadConnections.add(connection);
-            } catch (InterruptedException e) {
-                System.err.println("LOAD-Timeout: " + data + ", " + e);
-            } finally {
-                if (sseType == SSEType.LOAD) {
-                    loadEventOccured = false;
-                    lock.unlock();
-                }
+    // A setting for the browsers connected now, not logged: `change` applies it under the
+    // log's lock, where new clients get the current one, and returns its event, null if none.
+    // It goes out on the interactive lane, ahead of the events a full client holds up.
+    private final ReentrantLock settings = new ReentrantLock(); // settings arrive in the order they were made
+
+    private void broadcastSetting(Supplier<ServerEvent> change) {
+        settings.lock();
+        try {
+            ServerEvent event;
+            List<SSEClient> connections;
+            synchronized (eventLog) {
+                event = change.get();
+                if (event == null)
+                    return;
+                event = event.interactive();
+                connections = List.copyOf(sseClientConnections);
+            }
+            for (SSEClient connection : connections)
+                connection.offer(event, overflowPolicy);
+        } finally {
+            settings.unlock();
+        }
+    }
+
+    // Broadcasts are numbered under the log's lock along with the clients connected at that
+    // moment, which don't have the event in their replay, and offered outside of it in the
+    // order of their numbers. Under OverflowPolicy.BLOCK a full client so holds up the
+    // producers only, not new browsers or readers of the log.
+    private final ReentrantLock offering = new ReentrantLock();
+    private final Condition turn = offering.newCondition();
+    private long numbered = 0; // guarded by the log
+    private long offered = 0; // guarded by `offering`
+
+    private void offer(long number, List<SSEClient> connections, ServerEvent event, Script script) {
+        offering.lock();
+        try {
+            while (offered != number - 1)
+                turn.awaitUninterruptibly();
+            for (SSEClient connection : connections) {
+                boolean tracked = script != null && !connection.id.isEmpty() && script.pending().add(connection);
+                if (!connection.offer(event, overflowPolicy) && tracked)
+                    script.pending().remove(connection);
             }
+        } finally {
+            offered = number;
+            turn.signalAll();
+            offering.unlock();
+        }
+    }
+
+    // Defines `function`, JavaScript source evaluating to a function, under `name` in the
+    // browser and returns the command that calls it. The DEFINE `<opcode>\n<name>\n<function>`
+    // is sent once; later calls of the command send only its opcode and typed arguments.
+    // Defining a name again with another function replaces it under the same opcode.
+    Command command(String name, String function) {
+        Command known = commands.get(name);
+        if (known != null && known.function().equals(function))
+            return known;
+        synchronized (commands) {
+            known = commands.get(name);
+            if (known != null && known.function().equals(function))
+                return known;
+            int opcode = known != null ? known.opcode() : commands.size();
+            if (opcode > 0xFFFF)
+                throw new IllegalStateException("too many commands: " + name);
+            Command command = new Command(this, opcode, name, function);
+            sendServerEvent(SSEType.DEFINE, opcode + "\n" + name + "\n" + function);
+            commands.put(name, command);
+            return command;
         }
-        sseClientConnections.removeAll(deadConnections);
     }
 
     void createResponseContext(String path, Consumer<String> delegate) {
@@ -169,44 +2995,481 @@ class LiveView {
     }
 
     void createResponseContext(String path, Consumer<String> delegate, String id) {
-        server.createContext(path, exchange -> {
-            if (!exchange.getRequestMethod().equalsIgnoreCase("post")) {
-                exchange.sendResponseHeaders(405, -1); // Method Not Allowed
-                return;
-            }
+        createResponseContext(path, delegate, id, Integer.MAX_VALUE, 0);
+    }
 
-            String content_length = exchange.getRequestHeaders().getFirst("Content-length");
-            if (content_length == null) {
-                exchange.sendResponseHeaders(400, -1);
-                return;
-            }
+    void createResponseContext(String path, Consumer<String> delegate, int maxConcurrency, int maxQueued) {
+        createResponseContext(path, delegate, "-1", maxConcurrency, maxQueued);
+    }
 
+    // With an `id` other than "-1", a RELEASE of `id` follows each handled request, which
+    // removes `id` from `Clerk.locks` in the browser (see Slider).
+    void createResponseContext(String path, Consumer<String> delegate, String id, int maxConcurrency, int maxQueued) {
+        Consumer<String> handler = id.equals("-1") ? delegate : body -> {
             try {
-                int length = Integer.parseInt(content_length);
-                byte[] data = new byte[length];
-                exchange.getRequestBody().read(data);
-                delegate.accept(new String(data));
-                // NOTE: this line crashed the sse connection it sent confirmation on every
-                // fetch recieved
-                // sendServerEvent(SSEType.RELEASE, id);
-            } catch (NumberFormatException e) {
-                exchange.sendResponseHeaders(400, -1);
-                return;
+                delegate.accept(body);
+            } finally {
+                sendServerEvent(new ServerEvent(SSEType.RELEASE, id).interactive());
             }
+        };
+        responseContexts.put(path, ResponseContext.ofText(handler, maxConcurrency, maxQueued));
+        server.route(path);
+    }
 
-            exchange.sendResponseHeaders(200, 0);
-            exchange.close();
-        });
+    // Like `createResponseContext`, but the delegate gets the body as it arrived, for
+    // frequent or binary input: no String, no regular expressions, see RequestBody.
+    void createBodyContext(String path, Consumer<RequestBody> delegate) {
+        createBodyContext(path, delegate, Integer.MAX_VALUE, 0);
+    }
+
+    void createBodyContext(String path, Consumer<RequestBody> delegate, int maxConcurrency, int maxQueued) {
+        responseContexts.put(path, new ResponseContext(delegate, maxConcurrency, maxQueued));
+        server.route(path);
     }
 
+    // Stopping the default channel stops the server with all its channels, any other
+    // channel only disconnects its browsers.
     public void stop() {
+        if (channel.isEmpty()) {
+            server.stop();
+            return;
+        }
+        close();
+        server.channels.remove(channel, this);
+    }
+
+    void close() {
+        scheduler.shutdownNow();
+        flushBatch();
+        sseClientConnections.forEach(SSEClient::close);
         sseClientConnections.clear();
-        views.remove(port);
-        server.stop(0);
     }
 
     static void shutdown() {
-        views.forEach((k, v) -> v.stop());
+        LiveViewServer.shutdown();
+    }
+}
+
+// Where the time of an event goes, from its creation at the Java call site to its
+// execution in the browser, by stage and SSEType (see `LiveView.setTracing`). The id an
+// event gets in the EventLog is its trace id: the server remembers when it sent the
+// last `capacity` events, the browsers report when they received and ran them. DELIVER
+// compares the wall clocks of server and browser, which agree on one machine only.
+// Interactive events reach the browser without their id, so only SEND and WRITE are
+// measured for them.
+class Tracer {
+    enum Stage {
+        SEND,    // creation to broadcast: batching and waiting for slow browsers
+        WRITE,   // broadcast to written to a connection, per client: its queue and the socket
+        DELIVER, // broadcast to received by the browser: WRITE, the network and decoding the frame
+        QUEUE,   // waiting in the browser for an animation frame
+        RUN;     // decoding the body and running it in the browser
+    }
+
+    record Sent(SSEType type, long nanos, long millis) {}
+
+    static final int capacity = 4_096;
+    volatile boolean on = false;
+    private final Map<Long, Sent> sent = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Sent> eldest) {
+            return size() > capacity;
+        }
+    };
+    private final Histogram[][] stages = new Histogram[Stage.values().length][SSEType.values().length];
+
+    Tracer() {
+        for (Histogram[] stage : stages)
+            for (int i = 0; i < stage.length; i++)
+                stage[i] = new Histogram();
+    }
+
+    // the event switching tracing on or off in the browser
+    static ServerEvent enable(boolean on) {
+        return new ServerEvent(SSEType.CALL, "Clerk.tracing = " + on + ";");
+    }
+
+    void broadcast(ServerEvent event) {
+        long now = System.nanoTime();
+        record(Stage.SEND, event.type, now - event.created);
+        synchronized (sent) {
+            sent.put(event.id, new Sent(event.type, now, System.currentTimeMillis()));
+        }
+    }
+
+    void written(ServerEvent event) {
+        Sent known;
+        synchronized (sent) {
+            known = sent.get(event.id);
+        }
+        if (known != null)
+            record(Stage.WRITE, known.type(), System.nanoTime() - known.nanos());
+    }
+
+    // client id, then `<id> <received, ms since the epoch> <queue ms> <run ms>` per line
+    void report(String body) {
+        List<String> lines = body.lines().skip(1).toList();
+        for (String line : lines) {
+            String[] fields = line.trim().split(" ");
+            if (fields.length != 4)
+                continue;
+            Sent known;
+            try {
+                synchronized (sent) {
+                    known = sent.get(Long.parseLong(fields[0]));
+                }
+                if (known == null)
+                    continue;
+                record(Stage.DELIVER, known.type(), TimeUnit.MILLISECONDS.toNanos(Long.parseLong(fields[1]) - known.millis()));
+                record(Stage.QUEUE, known.type(), (long) (Double.parseDouble(fields[2]) * 1e6));
+                record(Stage.RUN, known.type(), (long) (Double.parseDouble(fields[3]) * 1e6));
+            } catch (NumberFormatException e) {
+                // skips the line
+            }
+        }
+    }
+
+    private void record(Stage stage, SSEType type, long nanos) {
+        stages[stage.ordinal()][type.ordinal()].record(Math.max(0, nanos));
+    }
+
+    Histogram.Snapshot snapshot(Stage stage, SSEType type) {
+        return stages[stage.ordinal()][type.ordinal()].snapshot();
+    }
+}
+
+// Statistics of one channel, exposed by GET `/metrics` in the Prometheus text format
+// and by `/metrics?format=json` as a snapshot. Clients count their own writes; when a
+// client is removed, its numbers are added to the channel's.
+class Metrics {
+    final LongAdder[] events = new LongAdder[SSEType.values().length];
+    final LongAdder[] eventBytes = new LongAdder[SSEType.values().length];
+    final LongAdder clientsRemoved = new LongAdder();
+    final Histogram loadWait = new Histogram(); // until all browsers acknowledged a LOAD
+    final LongAdder loadTimeouts = new LongAdder();
+    final Histogram ackWait = new Histogram(); // until all browsers ran an acknowledged event
+    final LongAdder ackTimeouts = new LongAdder();
+    private final Histogram writes = new Histogram(); // of removed clients
+    private final LongAdder bytesWritten = new LongAdder(), dropped = new LongAdder();
+
+    Metrics() {
+        for (int i = 0; i < events.length; i++) {
+            events[i] = new LongAdder();
+            eventBytes[i] = new LongAdder();
+        }
+    }
+
+    void sent(ServerEvent event) {
+        events[event.type.ordinal()].increment();
+        eventBytes[event.type.ordinal()].add(event.body.length);
+    }
+
+    void removed(SSEClient client) {
+        clientsRemoved.increment();
+        writes.add(client.writes.snapshot());
+        bytesWritten.add(client.bytesWritten.sum());
+        dropped.add(client.dropped.sum());
+    }
+
+    // of all clients, connected or removed
+    Histogram.Snapshot writes(Collection<SSEClient> clients) {
+        Histogram.Snapshot snapshot = writes.snapshot();
+        for (SSEClient client : clients)
+            snapshot = Histogram.merge(snapshot, client.writes.snapshot());
+        return snapshot;
+    }
+
+    long bytesWritten(Collection<SSEClient> clients) {
+        return bytesWritten.sum() + clients.stream().mapToLong(c -> c.bytesWritten.sum()).sum();
+    }
+
+    long dropped(Collection<SSEClient> clients) {
+        return dropped.sum() + clients.stream().mapToLong(c -> c.dropped.sum()).sum();
+    }
+
+    static String prometheus(Collection<LiveView> channels) {
+        StringBuilder text = new StringBuilder();
+        family(text, "lvp_events_total", "counter", "events sent, by type");
+        for (LiveView view : channels)
+            for (SSEType type : SSEType.values())
+                sample(text, "lvp_events_total", labels(view, "type", type.name()), view.metrics.events[type.ordinal()].sum());
+        family(text, "lvp_event_bytes_total", "counter", "body bytes of the events sent, by type");
+        for (LiveView view : channels)
+            for (SSEType type : SSEType.values())
+                sample(text, "lvp_event_bytes_total", labels(view, "type", type.name()), view.metrics.eventBytes[type.ordinal()].sum());
+        family(text, "lvp_clients", "gauge", "connected clients");
+        for (LiveView view : channels)
+            sample(text, "lvp_clients", labels(view), view.sseClientConnections.size());
+        family(text, "lvp_clients_removed_total", "counter", "clients removed after their connection closed or failed");
+        for (LiveView view : channels)
+            sample(text, "lvp_clients_removed_total", labels(view), view.metrics.clientsRemoved.sum());
+        family(text, "lvp_client_queue_depth", "gauge", "events waiting in a client's queue");
+        for (LiveView view : channels)
+            for (SSEClient client : view.sseClientConnections)
+                sample(text, "lvp_client_queue_depth", labels(view, "client", client.id), client.queued());
+        family(text, "lvp_client_backlog", "gauge", "events waiting in a browser, as it reported");
+        for (LiveView view : channels)
+            for (SSEClient client : view.sseClientConnections)
+                sample(text, "lvp_client_backlog", labels(view, "client", client.id), client.backlog);
+        family(text, "lvp_client_bytes_written_total", "counter", "bytes written to clients");
+        for (LiveView view : channels)
+            sample(text, "lvp_client_bytes_written_total", labels(view), view.metrics.bytesWritten(view.sseClientConnections));
+        family(text, "lvp_client_dropped_events_total", "counter", "events dropped by OverflowPolicy.DROP_OLDEST");
+        for (LiveView view : channels)
+            sample(text, "lvp_client_dropped_events_total", labels(view), view.metrics.dropped(view.sseClientConnections));
+        family(text, "lvp_client_write_seconds", "histogram", "time to write and flush the queued events to a client");
+        for (LiveView view : channels)
+            histogram(text, "lvp_client_write_seconds", labels(view), view.metrics.writes(view.sseClientConnections));
+        family(text, "lvp_load_wait_seconds", "histogram", "time until every browser has loaded a script");
+        for (LiveView view : channels)
+            histogram(text, "lvp_load_wait_seconds", labels(view), view.metrics.loadWait.snapshot());
+        family(text, "lvp_load_timeouts_total", "counter", "LOADs not acknowledged in time");
+        for (LiveView view : channels)
+            sample(text, "lvp_load_timeouts_total", labels(view), view.metrics.loadTimeouts.sum());
+        family(text, "lvp_ack_wait_seconds", "histogram", "time until every browser has run an acknowledged event");
+        for (LiveView view : channels)
+            histogram(text, "lvp_ack_wait_seconds", labels(view), view.metrics.ackWait.snapshot());
+        family(text, "lvp_ack_timeouts_total", "counter", "acknowledged events not confirmed in time");
+        for (LiveView view : channels)
+            sample(text, "lvp_ack_timeouts_total", labels(view), view.metrics.ackTimeouts.sum());
+        family(text, "lvp_trace_seconds", "histogram", "latency of traced events, by stage and type");
+        for (LiveView view : channels)
+            for (Tracer.Stage stage : Tracer.Stage.values())
+                for (SSEType type : SSEType.values()) {
+                    Histogram.Snapshot snapshot = view.tracer.snapshot(stage, type);
+                    if (snapshot.count() > 0)
+                        histogram(text, "lvp_trace_seconds", labels(view, "stage", stage.name(), "type", type.name()), snapshot);
+                }
+        family(text, "lvp_handler_seconds", "histogram", "time spent in a response context's delegate");
+        for (LiveView view : channels)
+            view.responseContexts.forEach((path, context) ->
+                histogram(text, "lvp_handler_seconds", labels(view, "path", path), context.latency.snapshot()));
+        family(text, "lvp_handler_rejected_total", "counter", "requests rejected by a busy response context");
+        for (LiveView view : channels)
+            view.responseContexts.forEach((path, context) ->
+                sample(text, "lvp_handler_rejected_total", labels(view, "path", path), context.rejected.sum()));
+        return text.toString();
+    }
+
+    private static void family(StringBuilder text, String name, String type, String help) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder text, String name, String labels, double value) {
+        text.append(name).append('{').append(labels).append("} ").append(value == (long) value ? Long.toString((long) value) : Double.toString(value)).append('\n');
+    }
+
+    private static void histogram(StringBuilder text, String name, String labels, Histogram.Snapshot snapshot) {
+        long cumulative = 0;
+        for (int i = 0; i < Histogram.buckets; i++) {
+            cumulative += snapshot.counts()[i];
+            double bound = Histogram.upperBound(i);
+            sample(text, name + "_bucket", labels + ",le=\"" + (bound == Double.POSITIVE_INFINITY ? "+Inf" : bound) + "\"", cumulative);
+        }
+        sample(text, name + "_sum", labels, snapshot.sum() / 1e9);
+        sample(text, name + "_count", labels, cumulative);
+    }
+
+    private static String labels(LiveView view, String... pairs) {
+        StringBuilder labels = new StringBuilder("channel=\"").append(escape(view.channel)).append('"');
+        for (int i = 0; i + 1 < pairs.length; i += 2)
+            labels.append(',').append(pairs[i]).append("=\"").append(escape(pairs[i + 1])).append('"');
+        return labels.toString();
+    }
+
+    private static String escape(String value) { // label values in Prometheus, strings in JSON
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    static String json(Collection<LiveView> channels) {
+        List<String> json = new ArrayList<>();
+        for (LiveView view : channels)
+            json.add(channelJson(view));
+        return "{\"channels\":[" + String.join(",", json) + "]}";
+    }
+
+    // `{"<stage>":{"<type>":<histogram>,...},...}`, only what was recorded
+    private static String traceJson(Tracer tracer) {
+        return Arrays.stream(Tracer.Stage.values())
+                .map(stage -> "\"" + stage + "\":" + Arrays.stream(SSEType.values())
+                        .filter(type -> tracer.snapshot(stage, type).count() > 0)
+                        .map(type -> "\"" + type + "\":" + json(tracer.snapshot(stage, type)))
+                        .collect(Collectors.joining(",", "{", "}")))
+                .collect(Collectors.joining(",", "{", "}"));
+    }
+
+    static String channelJson(LiveView view) {
+        Metrics metrics = view.metrics;
+        Collection<SSEClient> clients = view.sseClientConnections;
+        String events = Arrays.stream(SSEType.values())
+                .map(type -> "\"" + type + "\":{\"count\":" + metrics.events[type.ordinal()].sum()
+                        + ",\"bytes\":" + metrics.eventBytes[type.ordinal()].sum() + "}")
+                .collect(Collectors.joining(",", "{", "}"));
+        String clientList = clients.stream()
+                .map(client -> "{\"id\":\"" + escape(client.id) + "\",\"queue\":" + client.queued()
+                        + ",\"backlog\":" + client.backlog + ",\"bytesWritten\":" + client.bytesWritten.sum() + ",\"dropped\":" + client.dropped.sum()
+                        + ",\"writes\":" + json(client.writes.snapshot()) + "}")
+                .collect(Collectors.joining(",", "[", "]"));
+        String handlers = view.responseContexts.entrySet().stream()
+                .map(e -> "\"" + escape(e.getKey()) + "\":{\"rejected\":" + e.getValue().rejected.sum()
+                        + ",\"latency\":" + json(e.getValue().latency.snapshot()) + "}")
+                .collect(Collectors.joining(",", "{", "}"));
+        return "{\"channel\":\"" + escape(view.channel) + "\",\"events\":" + events
+                + ",\"clients\":" + clientList + ",\"behind\":" + view.behind() + ",\"clientsRemoved\":" + metrics.clientsRemoved.sum()
+                + ",\"bytesWritten\":" + metrics.bytesWritten(clients) + ",\"dropped\":" + metrics.dropped(clients)
+                + ",\"writes\":" + json(metrics.writes(clients))
+                + ",\"load\":{\"timeouts\":" + metrics.loadTimeouts.sum() + ",\"wait\":" + json(metrics.loadWait.snapshot()) + "}"
+                + ",\"ack\":{\"timeouts\":" + metrics.ackTimeouts.sum() + ",\"wait\":" + json(metrics.ackWait.snapshot()) + "}"
+                + ",\"trace\":" + traceJson(view.tracer)
+                + ",\"handlers\":" + handlers + "}";
+    }
+
+    private static String json(Histogram.Snapshot snapshot) { // durations in seconds
+        return "{\"count\":" + snapshot.count() + ",\"sum\":" + snapshot.sum() / 1e9
+                + ",\"p50\":" + bound(snapshot.quantile(0.5)) + ",\"p90\":" + bound(snapshot.quantile(0.9))
+                + ",\"p99\":" + bound(snapshot.quantile(0.99)) + "}";
+    }
+
+    private static String bound(double seconds) { // JSON has no infinity
+        return seconds == Double.POSITIVE_INFINITY ? "null" : Double.toString(seconds);
+    }
+}
+
+// What a view shows, written as a static site that any file server can host: `index.html`
+// and the files it needs in `assets/`, named by a fingerprint of their content, so they
+// can be cached forever. WRITEs and regions are rendered into the page. LOADs, SCRIPTs,
+// CALLs, DATA and commands are replayed by web/script.js when the page opens, without a
+// server to connect to. Local files named in the events, the page or the copied scripts
+// and style sheets (`views/...`, `web/...`) are copied and the names replaced.
+class StaticExport {
+    static final Pattern localPath = Pattern.compile("(?<![\\w.:/-])(?:views|web)/[\\w./-]+\\.\\w+");
+    final Path root = Path.of("").toAbsolutePath(); // where the server finds its files
+    final Path directory;
+    private final Map<String, String> assets = new HashMap<>(); // name in `assets/` by local path
+    private final List<String> blocks = new ArrayList<>(); // HTML of the children of #events
+    private final Map<String, Integer> regions = new HashMap<>(); // block by region key
+    private final List<String> replay = new ArrayList<>(); // `TYPE:<base64 body>`
+
+    private StaticExport(Path directory) {
+        this.directory = directory;
+    }
+
+    // returns the path of the page
+    static Path write(LiveView view, Path directory) throws IOException {
+        List<ServerEvent> events;
+        synchronized (view.eventLog) {
+            if (!view.eventLog.complete())
+                throw new IllegalStateException("the event log dropped events, raise its limits with setEventLog");
+            events = view.eventLog.since(0);
+        }
+        StaticExport export = new StaticExport(directory);
+        Files.createDirectories(directory.resolve("assets"));
+        for (ServerEvent event : events)
+            export.add(event.type, event.body);
+        String page = export.rewrite(Files.readString(export.root.resolve(LiveViewServer.index)), "assets/");
+        page = page.replace("<div id=\"events\" class=\"persistent\"></div>",
+                "<div id=\"events\" class=\"persistent\">" + String.join("", export.blocks) + "</div>");
+        page = page.replace("</body>", "  <script type=\"application/json\" id=\"staticEvents\">"
+                + export.replay.stream().map(e -> "\"" + e + "\"").collect(Collectors.joining(",", "[", "]"))
+                + "</script>\n  </body>");
+        Path index = directory.resolve("index.html");
+        Files.writeString(index, page);
+        return index;
+    }
+
+    private void add(SSEType type, byte[] body) throws IOException {
+        switch (type) {
+            case BATCH -> { // [u8 type][u32 length][body]...
+                ByteBuffer batch = ByteBuffer.wrap(body);
+                while (batch.hasRemaining()) {
+                    SSEType next = SSEType.values()[batch.get()];
+                    byte[] part = new byte[batch.getInt()];
+                    batch.get(part);
+                    add(next, part);
+                }
+            }
+            case WRITE -> blocks.add("<div>" + rewrite(text(body), "assets/") + "</div>");
+            case PATCH -> patch(text(body));
+            case CLEAR -> { // as in the EventLog, the browser keeps scripts and commands
+                blocks.clear();
+                regions.clear();
+                replay.removeIf(e -> !e.startsWith("LOAD:") && !e.startsWith("DEFINE:"));
+            }
+            case RELEASE -> {} // answers input, there is none
+            case DATA, COMMAND -> replay.add(type + ":" + Base64.getEncoder().encodeToString(body));
+            default -> replay.add(type + ":" + Base64.getEncoder().encodeToString(
+                    rewrite(text(body), "assets/").getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    // PATCH body: `key\n<start> <removed> <old length>\n<inserted>`, see `LiveView.updateRegion`
+    private void patch(String data) throws IOException {
+        int first = data.indexOf('\n'), second = data.indexOf('\n', first + 1);
+        String key = data.substring(0, first);
+        String[] range = data.substring(first + 1, second).split(" ");
+        int start = Integer.parseInt(range[0]), removed = Integer.parseInt(range[1]);
+        String inserted = data.substring(second + 1);
+        Integer block = regions.get(key);
+        if (block == null) {
+            regions.put(key, blocks.size());
+            blocks.add("<div></div>");
+            block = blocks.size() - 1;
+        }
+        String html = blocks.get(block);
+        html = html.substring(5, html.length() - 6);
+        html = removed < 0 ? inserted : html.substring(0, start) + inserted + html.substring(start + removed);
+        blocks.set(block, "<div>" + html + "</div>");
+    }
+
+    private static String text(byte[] body) {
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    // replaces the local paths in `text` by their copies, relative to `base`
+    private String rewrite(String text, String base) throws IOException {
+        Matcher matcher = localPath.matcher(text);
+        StringBuilder result = new StringBuilder();
+        while (matcher.find())
+            matcher.appendReplacement(result, Matcher.quoteReplacement(copy(matcher.group(), base)));
+        return matcher.appendTail(result).toString();
+    }
+
+    // copies the file to `assets/<name>.<fingerprint>.<extension>`, unless it isn't a local file
+    private String copy(String path, String base) throws IOException {
+        Path file = root.resolve(path).normalize();
+        if (!file.startsWith(root) || !Files.isRegularFile(file))
+            return path;
+        String name = assets.get(path);
+        if (name == null) {
+            assets.put(path, path); // a file naming itself keeps its name
+            byte[] bytes = Files.readAllBytes(file);
+            String fileName = file.getFileName().toString();
+            int dot = fileName.lastIndexOf('.');
+            String extension = fileName.substring(dot + 1);
+            if (extension.equals("js") || extension.equals("css") || extension.equals("html"))
+                bytes = rewrite(new String(bytes, StandardCharsets.UTF_8), extension.equals("css") ? "" : "assets/")
+                        .getBytes(StandardCharsets.UTF_8); // style sheets resolve names next to them
+            name = fileName.substring(0, dot) + "." + AssetCache.fingerprint(bytes) + "." + extension;
+            Files.write(directory.resolve("assets").resolve(name), bytes);
+            assets.put(path, name);
+        }
+        return name.equals(path) ? path : base + name;
+    }
+}
+
+// A part of the page whose content can be replaced; an update sends only what changed.
+record Region(LiveView view, String key) {
+    Region set(String html) {
+        view.updateRegion(key, html);
+        return this;
+    }
+}
+
+// A function defined in the browser, called by its opcode; see `LiveView.command`.
+record Command(LiveView view, int opcode, String name, String function) {
+    void call(Object... args) {
+        view.sendServerEvent(ServerEvent.command(opcode, args));
     }
 }
 
@@ -227,6 +3490,11 @@ interface Clerk {
         return view(LiveView.getDefaultPort());
     }
 
+    // a channel of its own on the default port, see LiveViewServer
+    static LiveView view(String channel) {
+        return LiveView.onPort(LiveView.getDefaultPort(), channel);
+    }
+
     static void write(LiveView view, String html) {
         view.sendServerEvent(SSEType.WRITE, html);
     }
@@ -235,17 +3503,78 @@ interface Clerk {
         view.sendServerEvent(SSEType.CALL, javascript);
     }
 
+    // the variants ending in `Async` complete once the browsers have run the event
+    static CompletableFuture<Void> writeAsync(LiveView view, String html) {
+        return view.sendAcknowledged(new ServerEvent(SSEType.WRITE, html));
+    }
+
+    static CompletableFuture<Void> callAsync(LiveView view, String javascript) {
+        return view.sendAcknowledged(new ServerEvent(SSEType.CALL, javascript));
+    }
+
+    static CompletableFuture<Void> scriptAsync(LiveView view, String javascript) {
+        return view.sendAcknowledged(new ServerEvent(SSEType.SCRIPT, javascript));
+    }
+
+    // a CALL ahead of the events still queued, such as a large scene; see ServerEvent
+    static void callInteractive(LiveView view, String javascript) {
+        view.sendServerEvent(new ServerEvent(SSEType.CALL, javascript).interactive());
+    }
+
+    // calls `function` in the browser with a typed array holding the remaining
+    // elements of `data`, which must be in little-endian byte order
+    static void call(LiveView view, String function, TypedArray type, ByteBuffer data) {
+        view.sendServerEvent(ServerEvent.data(function, type, data));
+    }
+
+    static void call(LiveView view, String function, int[] data) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 * data.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asIntBuffer().put(data);
+        call(view, function, TypedArray.INT32, buffer);
+    }
+
+    static void call(LiveView view, String function, float[] data) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 * data.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(data);
+        call(view, function, TypedArray.FLOAT32, buffer);
+    }
+
     static void script(LiveView view, String javascript) {
         view.sendServerEvent(SSEType.SCRIPT, javascript);
     }
 
-    static void load(LiveView view, String path) {
-        if (!view.paths.contains(path.trim()))
-            view.sendServerEvent(SSEType.LOAD, path);
+    // all events sent by `events` arrive in the browser as one batch
+    static void batch(LiveView view, Runnable events) {
+        view.beginBatch();
+        try {
+            events.run();
+        } finally {
+            view.endBatch();
+        }
+    }
+
+    // completes when every connected browser has loaded the script
+    static CompletableFuture<Void> load(LiveView view, String path) {
+        return view.load(path, List.of());
     }
 
-    static void load(LiveView view, String onlinePath, String offlinePath) {
-        load(view, onlinePath + ", " + offlinePath);
+    static CompletableFuture<Void> load(LiveView view, String onlinePath, String offlinePath) {
+        return load(view, onlinePath + ", " + offlinePath);
+    }
+
+    // loads `path` after the scripts in `dependencies`, each given by one of its paths
+    static CompletableFuture<Void> load(LiveView view, String path, List<String> dependencies) {
+        return view.load(path, dependencies);
+    }
+
+    // the command `name` running `function` in the browser, see `LiveView.command`
+    static Command command(LiveView view, String name, String function) {
+        return view.command(name, function);
+    }
+
+    // the region `key` of the page, see `LiveView.updateRegion`
+    static Region region(LiveView view, String key) {
+        return new Region(view, key);
     }
 
     static void clear(LiveView view) {
@@ -256,6 +3585,11 @@ interface Clerk {
         clear(view());
     };
 
+    // writes what the view shows as a static site to `directory`, returns the page; see `StaticExport`
+    static Path export(LiveView view, String directory) throws IOException {
+        return StaticExport.write(view, Path.of(directory));
+    }
+
     static void markdown(String text) {
         new MarkdownIt(view()).write(text);
     }
@@ -263,10 +3597,13 @@ interface Clerk {
 
 /open skills/Text/Text.java
 /open skills/ObjectInspector/ObjectInspector.java
+/open skills/LiveViewClient/LiveViewClient.java
+/open skills/Relay/Relay.java
 /open views/Turtle/Turtle.java
 /open views/Markdown/Marked.java
 /open views/Markdown/MarkdownIt.java
 /open views/TicTacToe/TicTacToe.java
+/open views/Diagnostics/Diagnostics.java
 /open views/Dot/Dot.java
 /open views/Input/Slider.java
 /open views/WebGL/BlockType.java
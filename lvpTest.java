@@ -0,0 +1,473 @@
+// run with assertions on: jshell -R-ea lvp.java lvpTest.java
+
+// RequestBody: the numbers of a text body, parsed in place
+RequestBody body = new RequestBody("{\"x\":-3,\"y\":+1.5,\"z\":.25,\"w\":-.5}");
+assert body.nextLong() == -3;
+assert body.nextDouble() == 1.5;
+assert body.nextDouble() == 0.25;
+assert body.nextDouble() == -0.5;
+assert !body.hasNext();
+
+body = new RequestBody("1.5e3 2E-2 -4e+1 6.02e23");
+assert body.nextDouble() == 1500;
+assert body.nextDouble() == 0.02;
+assert body.nextDouble() == -40;
+assert body.nextDouble() == 6.02e23;
+assert !body.hasNext();
+
+body = new RequestBody("7.9 -0.5 2e3 .5"); // a fraction is cut off, an exponent isn't
+assert body.nextLong() == 7;
+assert body.nextLong() == 0;
+assert body.nextLong() == 2000;
+assert body.nextLong() == 0;
+assert !body.hasNext();
+
+body = new RequestBody("5em, 3e"); // an `e` without digits is no exponent
+assert body.nextDouble() == 5;
+assert body.nextDouble() == 3;
+assert !body.hasNext();
+
+body = new RequestBody("0.1 123456789012345678 1234567890.1234567890 1e-7");
+assert body.nextDouble() == 0.1;
+assert body.nextDouble() == 123456789012345678d; // more digits than a double holds exactly
+assert body.nextDouble() == 1234567890.1234567890;
+assert body.nextDouble() == 1e-7;
+
+body = new RequestBody("9223372036854775807 -9223372036854775807 9223372036854775808 1e19");
+assert body.nextLong() == Long.MAX_VALUE;
+assert body.nextLong() == -Long.MAX_VALUE;
+try { body.nextLong(); assert false; } catch (ArithmeticException e) {} // overflow
+body = new RequestBody("-9223372036854775808 -9.223372036854775808e18 -9223372036854775809");
+assert body.nextLong() == Long.MIN_VALUE;
+assert body.nextLong() == Long.MIN_VALUE;
+try { body.nextLong(); assert false; } catch (ArithmeticException e) {}
+body = new RequestBody("1e19 3000000000");
+try { body.nextLong(); assert false; } catch (ArithmeticException e) {}
+try { body.nextInt(); assert false; } catch (ArithmeticException e) {}
+
+body = new RequestBody("- + . -. x");
+assert !body.hasNext();
+try { body.nextDouble(); assert false; } catch (NoSuchElementException e) {}
+
+// EventLog: a client resuming after a CLEAR gets what it missed, a CLEAR first if the
+// log no longer has it
+EventLog log = new EventLog(100, 1 << 20);
+log.append(new ServerEvent(SSEType.WRITE, "a")); // 1
+log.append(new ServerEvent(SSEType.LOAD, "lib.js")); // 2
+log.append(new ServerEvent(SSEType.WRITE, "b")); // 3
+log.append(new ServerEvent(SSEType.CLEAR, "")); // 4, only the LOAD survives
+log.append(new ServerEvent(SSEType.WRITE, "c")); // 5
+
+String ids(List<ServerEvent> events) {
+    return events.stream().map(e -> e.type + ":" + e.id).collect(Collectors.joining(" "));
+}
+
+assert ids(log.since(0)).equals("LOAD:2 CLEAR:4 WRITE:5");
+assert ids(log.since(1)).equals("CLEAR:0 LOAD:2 CLEAR:4 WRITE:5");
+assert ids(log.since(2)).equals("CLEAR:0 LOAD:2 CLEAR:4 WRITE:5");
+assert ids(log.since(3)).equals("CLEAR:4 WRITE:5");
+assert ids(log.since(4)).equals("WRITE:5");
+assert ids(log.since(5)).equals("");
+assert ids(log.since(6)).equals("CLEAR:0 LOAD:2 CLEAR:4 WRITE:5"); // an id of another server run
+
+log.append(new ServerEvent(SSEType.CLEAR, "")); // 6
+assert ids(log.since(4)).equals("CLEAR:0 LOAD:2 CLEAR:6");
+assert ids(log.since(5)).equals("CLEAR:6");
+assert log.complete();
+
+log.setLimits(2, 1 << 20); // drops the oldest events but the LOAD
+for (String s : List.of("d", "e", "f"))
+    log.append(new ServerEvent(SSEType.WRITE, s)); // 7, 8, 9
+assert ids(log.since(0)).equals("LOAD:2 WRITE:9");
+assert ids(log.since(7)).equals("CLEAR:0 LOAD:2 WRITE:9");
+assert ids(log.since(8)).equals("WRITE:9");
+assert !log.complete();
+
+// updateRegion: patches never split a surrogate pair, positions count UTF-16 units
+LiveView view = LiveView.onPort(50_399);
+String patch(String key, String html) {
+    view.updateRegion(key, html);
+    List<ServerEvent> events = view.eventLog.since(0);
+    return new String(events.get(events.size() - 1).body, StandardCharsets.UTF_8);
+}
+
+assert patch("r", "a\uD83D\uDE00b").equals("r\n0 -1 0\na\uD83D\uDE00b");
+assert patch("r", "a\uD83D\uDE01b").equals("r\n1 2 4\n\uD83D\uDE01"); // same high surrogate
+assert patch("r", "a\uD83C\uDE01b").equals("r\n1 2 4\n\uD83C\uDE01"); // same low surrogate, U+1F201 and U+1F601
+assert patch("r", "a\uD83C\uDE01\uD83C\uDE01b").equals("r\n3 0 4\n\uD83C\uDE01");
+assert patch("r", "\uD83C\uDE01").equals("r\n0 6 6\n\uD83C\uDE01");
+assert patch("r", "x\uD83D\uDE00").equals("r\n0 2 2\nx\uD83D\uDE00");
+assert patch("r", "x\uD83D\uDE00!").equals("r\n3 0 3\n!");
+view.stop();
+
+// Flow control: interactive events don't wait for a browser that is behind
+view = LiveView.onPort(50_398);
+java.net.Socket browser = new java.net.Socket("localhost", 50_398);
+browser.getOutputStream().write("GET /events?format=binary&client=behind HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes());
+while (view.sseClientConnections.isEmpty()) Thread.sleep(10);
+HttpClient.newHttpClient().send(HttpRequest.newBuilder(URI.create("http://localhost:50398/backlog"))
+        .POST(HttpRequest.BodyPublishers.ofString("behind\n9000")).build(), HttpResponse.BodyHandlers.discarding());
+assert view.behind();
+long start = System.nanoTime();
+Clerk.callInteractive(view, "camera()");
+assert System.nanoTime() - start < view.backlogStallMillis * 1_000_000 / 2;
+start = System.nanoTime();
+Clerk.call(view, "later()");
+assert System.nanoTime() - start >= view.backlogStallMillis * 1_000_000; // the browser never reports
+browser.close();
+view.stop();
+
+// Channels: only Java creates them, requests naming an unknown one get a 404
+view = LiveView.onPort(50_397);
+HttpClient http = HttpClient.newHttpClient();
+int status(String path) throws Exception {
+    return http.send(HttpRequest.newBuilder(URI.create("http://localhost:50397" + path)).timeout(Duration.ofSeconds(5))
+            .method(path.startsWith("/loaded") ? "POST" : "GET", HttpRequest.BodyPublishers.noBody()).build(),
+            HttpResponse.BodyHandlers.discarding()).statusCode();
+}
+assert status("/events?channel=made-up") == 404;
+assert status("/history?keys=1.0&channel=made-up") == 404;
+assert status("/loaded?channel=made-up") == 404;
+assert status("/history?keys=1.0") == 200; // the default channel always exists
+try (java.net.Socket socket = new java.net.Socket("localhost", view.server.webSocket.port())) {
+    socket.getOutputStream().write(("GET /?client=x&channel=made-up HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\n"
+            + "Connection: Upgrade\r\nSec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nSec-WebSocket-Version: 13\r\n\r\n").getBytes());
+    assert new BufferedReader(new InputStreamReader(socket.getInputStream())).readLine().startsWith("HTTP/1.1 404");
+}
+assert !view.server.channels.containsKey("made-up");
+LiveView named = LiveView.onPort(50_397, "named");
+assert status("/history?keys=1.0&channel=named") == 200;
+named.stop();
+assert status("/history?keys=1.0&channel=named") == 404;
+view.stop();
+
+// Clerk.batch collects the events of its own thread, other threads' events go out meanwhile
+view = LiveView.onPort(50_396);
+long logged = view.eventLog.since(0).size();
+CountDownLatch opened = new CountDownLatch(1), sent = new CountDownLatch(1);
+Thread batching = Thread.ofVirtual().start(() -> Clerk.batch(view, () -> {
+    Clerk.call(view, "a()");
+    opened.countDown();
+    try { sent.await(); } catch (InterruptedException e) {}
+    Clerk.call(view, "b()");
+}));
+opened.await();
+Clerk.call(view, "other()");
+List<ServerEvent> events = view.eventLog.since(0);
+assert events.size() == logged + 1 && events.get(events.size() - 1).type == SSEType.CALL;
+sent.countDown();
+batching.join();
+events = view.eventLog.since(0);
+assert events.size() == logged + 2 && events.get(events.size() - 1).type == SSEType.BATCH;
+Clerk.batch(view, () -> { Clerk.batch(view, () -> Clerk.call(view, "c()")); Clerk.call(view, "d()"); }); // nested
+assert view.eventLog.since(0).size() == logged + 3;
+view.stop();
+
+// SSEClient: each client drains a queue of its own, a stalled one doesn't hold up the others
+OutputStream stalled = new OutputStream() { // a browser tab that stopped reading
+    public void write(int b) throws IOException {
+        try { Thread.sleep(Long.MAX_VALUE); } catch (InterruptedException e) { throw new java.io.InterruptedIOException(); }
+    }
+};
+ServerEvent event = new ServerEvent(SSEType.WRITE, "x");
+SSEClient slow = new SSEClient(stalled, 2, c -> {});
+assert slow.offer(event, OverflowPolicy.DROP_OLDEST);
+while (slow.queued() > 0) Thread.sleep(10); // the writer is stuck on it
+for (int i = 0; i < 10; i++)
+    assert slow.offer(event, OverflowPolicy.DROP_OLDEST);
+assert slow.queued() == 2 && slow.dropped.sum() == 8;
+slow.close();
+CountDownLatch gone = new CountDownLatch(1);
+SSEClient full = new SSEClient(stalled, 1, c -> gone.countDown());
+boolean connected = true;
+for (int i = 0; i < 10 && connected; i++)
+    connected = full.offer(event, OverflowPolicy.DISCONNECT);
+assert !connected && gone.await(5, TimeUnit.SECONDS);
+
+view = LiveView.onPort(50_395).setOverflowPolicy(OverflowPolicy.DROP_OLDEST, 4);
+ByteArrayOutputStream received = new ByteArrayOutputStream();
+view.addClient("slow", 0, replay -> new SSEClient(stalled, view.queueCapacity, ServerEvent::sseFrame, replay, view::removeClient));
+view.addClient("fast", 0, replay -> new SSEClient(received, view.queueCapacity, ServerEvent::sseFrame, replay, view::removeClient));
+for (int i = 0; i < 100; i++)
+    Clerk.write(view, "w" + i);
+for (int i = 0; i < 500 && !received.toString().contains("data: WRITE:" + Base64.getEncoder().encodeToString("w99".getBytes())); i++)
+    Thread.sleep(10);
+assert received.toString().contains("id: 100\n");
+assert view.sseClientConnections.stream().anyMatch(c -> c.id.equals("slow") && c.dropped.sum() > 0);
+view.stop();
+
+// ServerEvent: framed once per format, every client writes the very same bytes
+event = new ServerEvent(SSEType.CALL, "f()".getBytes(), 7);
+assert new String(event.sseFrame()).equals("id: 7\ndata: CALL:" + Base64.getEncoder().encodeToString("f()".getBytes()) + "\n\n");
+assert event.sseFrame() == event.sseFrame() && event.webSocketFrame() == event.webSocketFrame();
+assert new String(new ServerEvent(SSEType.CLEAR, "").sseFrame()).equals("data: CLEAR:\n\n"); // not logged: no id
+byte[] frame = event.webSocketFrame();
+assert (frame[0] & 0xFF) == 0x82 && frame[1] == 12 && frame[2] == SSEType.CALL.ordinal() && frame[10] == 7;
+assert new String(frame, 11, 3).equals("f()");
+for (int size : new int[] { 116, 117, 65_526, 65_527 }) { // 7-, 16- and 64-bit lengths
+    frame = new ServerEvent(SSEType.WRITE, new byte[size]).webSocketFrame();
+    int header = size + 9 < 126 ? 2 : size + 9 <= 0xFFFF ? 4 : 10;
+    assert frame.length == header + 9 + size;
+    assert (frame[1] & 0x7F) == (header == 2 ? size + 9 : header == 4 ? 126 : 127);
+}
+
+// Binary framing: `[u32 length][u8 type][u64 id][body]`, DATA carries typed arrays as they are
+frame = event.binaryFrame();
+assert ByteBuffer.wrap(frame).getInt() == 12 && frame[4] == SSEType.CALL.ordinal() && ByteBuffer.wrap(frame).getLong(5) == 7;
+view = LiveView.onPort(50_394);
+List<LiveViewClient.Event> got = new CopyOnWriteArrayList<>();
+LiveViewClient client = new LiveViewClient(50_394, got::add);
+client.connected.join();
+while (view.sseClientConnections.isEmpty()) Thread.sleep(10);
+Clerk.call(view, "points", new float[] { 1.5f, -2f });
+Clerk.write(view, "\u00e4"); // UTF-8, not Base64 or Latin-1
+while (got.size() < 2) Thread.sleep(10);
+assert got.get(0).type() == SSEType.DATA && got.get(0).function().equals("points") && got.get(0).arrayType() == TypedArray.FLOAT32;
+assert got.get(0).elements().getFloat(0) == 1.5f && got.get(0).elements().getFloat(4) == -2f;
+assert got.get(1).data().equals("\u00e4") && got.get(1).id() == 2;
+client.close();
+view.stop();
+
+// AssetCache: each encoding has bytes and an ETag of its own, a changed file is reloaded
+Path asset = Files.createTempFile("lvp", ".js");
+Files.writeString(asset, "let x = 1;\n".repeat(100));
+AssetCache cache = new AssetCache();
+AssetCache.Asset cached = cache.get(asset);
+assert cached == cache.get(asset) && cached.contentType().startsWith("text/javascript");
+assert Arrays.equals(new java.util.zip.GZIPInputStream(new ByteArrayInputStream(cached.gzip())).readAllBytes(), cached.bytes());
+assert Arrays.equals(new java.util.zip.InflaterInputStream(new ByteArrayInputStream(cached.deflate())).readAllBytes(), cached.bytes());
+assert Set.of(cached.etag(null), cached.etag("gzip"), cached.etag("deflate")).size() == 3;
+Files.writeString(asset, "let x = 2;\n".repeat(100));
+Files.setLastModifiedTime(asset, FileTime.fromMillis(cached.modified().toMillis() + 1000));
+assert cache.get(asset) != cached && !cache.get(asset).etag().equals(cached.etag());
+Files.write(asset, new byte[] { 1, 2, 3 });
+Files.setLastModifiedTime(asset, FileTime.fromMillis(cached.modified().toMillis() + 2000));
+assert cache.get(asset).gzip() == null; // compressed it wouldn't be smaller
+Files.delete(asset);
+assert AssetCache.isVersioned(Path.of("lib.0123456789abcdef01234567.js")) && !AssetCache.isVersioned(Path.of("lib.js"));
+
+view = LiveView.onPort(50_393);
+HttpResponse<byte[]> get(String path, String... headers) throws Exception {
+    HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://localhost:" + view.port + path));
+    for (int i = 0; i < headers.length; i += 2)
+        request.header(headers[i], headers[i + 1]);
+    return http.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+}
+HttpResponse<byte[]> page = get("/web/script.js", "Accept-Encoding", "gzip");
+String gzipTag = page.headers().firstValue("ETag").get();
+assert page.statusCode() == 200 && page.headers().firstValue("Content-Encoding").get().equals("gzip");
+assert page.headers().firstValue("Vary").get().equals("Accept-Encoding");
+assert get("/web/script.js", "Accept-Encoding", "gzip", "If-None-Match", gzipTag).statusCode() == 304;
+page = get("/web/script.js", "If-None-Match", gzipTag); // another encoding, other bytes
+assert page.statusCode() == 200 && page.headers().firstValue("Content-Encoding").isEmpty();
+assert Arrays.equals(page.body(), Files.readAllBytes(Path.of("web/script.js")));
+assert get("/../lvp.java").statusCode() == 404;
+view.stop();
+
+// Resume: a reconnecting EventSource sends Last-Event-ID and gets only what it missed
+view = LiveView.onPort(50_392);
+for (String s : List.of("a", "b", "c"))
+    Clerk.write(view, s); // 1, 2, 3
+List<String> stream(String... headers) throws Exception { // the ids up to the last event
+    HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://localhost:50392/events"));
+    for (int i = 0; i < headers.length; i += 2)
+        request.header(headers[i], headers[i + 1]);
+    InputStream in = http.send(request.build(), HttpResponse.BodyHandlers.ofInputStream()).body();
+    BufferedReader lines = new BufferedReader(new InputStreamReader(in));
+    List<String> ids = new ArrayList<>();
+    for (String line; !ids.contains("3") && (line = lines.readLine()) != null;)
+        if (line.startsWith("data: ") && !line.startsWith("data: WRITE"))
+            ids.add(line.substring(6, line.indexOf(':', 6)));
+        else if (line.startsWith("id: "))
+            ids.add(line.substring(4));
+    in.close();
+    return ids;
+}
+assert stream().equals(List.of("1", "2", "3")); // a late joiner gets it all
+assert stream("Last-Event-ID", "1").equals(List.of("2", "3"));
+assert stream("Last-Event-ID", "99").equals(List.of("CLEAR", "1", "2", "3")); // another server run
+view.stop();
+
+// LOAD: the future completes once each connected browser loaded the script or went away
+view = LiveView.onPort(50_391).setHeartbeat(50); // a closed client shows up soon
+assert Clerk.load(view, "none.js").isDone(); // no browser to wait for
+got.clear();
+client = new LiveViewClient(50_391, got::add);
+while (view.sseClientConnections.isEmpty()) Thread.sleep(10);
+client.loadTime = Duration.ofSeconds(1);
+CompletableFuture<Void> lib = Clerk.load(view, "lib.js");
+CompletableFuture<Void> app = Clerk.load(view, "app.js", List.of("lib.js"));
+assert Clerk.load(view, "lib.js") == lib && !lib.isDone();
+app.get(5, TimeUnit.SECONDS);
+assert lib.isDone();
+List<String> loads = got.stream().filter(e -> e.type() == SSEType.LOAD).map(LiveViewClient.Event::data).toList();
+assert loads.equals(List.of("none.js", "lib.js", "app.js\nlib.js"));
+client.loadTime = Duration.ofDays(1);
+CompletableFuture<Void> stuck = Clerk.load(view, "stuck.js");
+Thread.sleep(100);
+assert !stuck.isDone();
+client.close(); // a browser that disconnects no longer holds it up
+stuck.get(5, TimeUnit.SECONDS);
+view.loadTimeoutMillis = 100;
+LiveViewClient silent = new LiveViewClient(50_391, e -> {});
+silent.loadTime = Duration.ofDays(1);
+while (view.sseClientConnections.stream().noneMatch(c -> c.id.equals(silent.clientId))) Thread.sleep(10);
+try { Clerk.load(view, "late.js").get(5, TimeUnit.SECONDS); assert false; } catch (ExecutionException e) {
+    assert e.getCause() instanceof TimeoutException;
+}
+assert !Clerk.load(view, "late.js").isDone(); // failed, so requested again
+silent.close();
+view.stop();
+
+// Histogram: bucket i holds durations below 2^(i + 10) ns, the last one everything beyond
+Histogram histogram = new Histogram();
+for (long nanos : new long[] { 0, 1023, 1024, 2047, 2048, 1L << 34, 1L << 40 })
+    histogram.record(nanos);
+Histogram.Snapshot snapshot = histogram.snapshot();
+assert snapshot.counts()[0] == 2 && snapshot.counts()[1] == 2 && snapshot.counts()[2] == 1;
+assert snapshot.counts()[Histogram.buckets - 1] == 2 && snapshot.count() == 7;
+assert Histogram.upperBound(0) == 1024e-9 && Histogram.upperBound(Histogram.buckets - 1) == Double.POSITIVE_INFINITY;
+assert snapshot.quantile(0.5) == 2048e-9 && snapshot.quantile(0) == 1024e-9 && snapshot.quantile(1) == Double.POSITIVE_INFINITY;
+assert new Histogram().snapshot().quantile(0.5) == 0;
+assert Histogram.merge(snapshot, snapshot).counts()[1] == 4 && Histogram.merge(snapshot, snapshot).sum() == 2 * snapshot.sum();
+
+view = LiveView.onPort(50_390);
+Clerk.write(view, "m");
+String metrics = new String(get("/metrics").body()); // as Prometheus scrapes it
+assert metrics.contains("lvp_events_total{channel=\"\",type=\"WRITE\"} 1\n");
+assert metrics.contains("# TYPE lvp_load_wait_seconds histogram\n");
+assert metrics.contains("lvp_load_wait_seconds_bucket{channel=\"\",le=\"+Inf\"} 0\n");
+view.stop();
+
+// Regions: only the changed middle goes out, a client patching its copy ends up with the HTML
+view = LiveView.onPort(50_389);
+client = new LiveViewClient(50_389, e -> {});
+while (view.sseClientConnections.isEmpty()) Thread.sleep(10);
+Region score = Clerk.region(view, "score");
+score.set("<b>Score: 10</b>");
+assert patch("score", "<b>Score: 12</b>").equals("score\n11 1 16\n2");
+int patches = view.eventLog.size();
+score.set("<b>Score: 12</b>"); // unchanged: nothing is sent
+assert view.eventLog.size() == patches;
+score.set("<i>Score: 12!</i>");
+Clerk.region(view, "other").set("x");
+while (!"<i>Score: 12!</i>".equals(client.region("score")) || client.region("other") == null) Thread.sleep(10);
+Clerk.clear(view); // removes the regions from the page, the next update sends them whole
+assert patch("score", "<b>Score: 12</b>").equals("score\n0 -1 0\n<b>Score: 12</b>");
+try { Clerk.region(view, "a\nb").set("x"); assert false; } catch (IllegalArgumentException e) {}
+client.close();
+view.stop();
+
+// Fragments: `[u8 type][u32 total length][u32 offset][part]`, the last one carries the id
+byte[] large = new byte[2 * ServerEvent.fragmentSize + 10];
+Arrays.fill(large, (byte) 'x');
+event = new ServerEvent(SSEType.WRITE, large, 5);
+List<ServerEvent> parts = event.fragments();
+assert event.fragmented() && !event.interactive().fragmented() && parts == event.fragments() && parts.size() == 3;
+ByteBuffer part = ByteBuffer.wrap(parts.get(2).body);
+assert part.get() == SSEType.WRITE.ordinal() && part.getInt() == large.length && part.getInt() == 2 * ServerEvent.fragmentSize;
+assert part.remaining() == 10 && parts.get(0).id == 0 && parts.get(1).id == 0 && parts.get(2).id == 5;
+
+List<LiveViewClient.Event> whole = new ArrayList<>();
+Consumer<LiveViewClient.Event> reassemble = LiveViewClient.reassembling(whole::add);
+Consumer<ServerEvent> deliver = e -> reassemble.accept(new LiveViewClient.Event(e.type, e.id, e.body));
+deliver.accept(parts.get(1)); // no start: lost
+deliver.accept(parts.get(0));
+deliver.accept(parts.get(0)); // a reconnect sends it again from offset 0
+deliver.accept(new ServerEvent(SSEType.CALL, "camera()").interactive());
+deliver.accept(parts.get(1));
+deliver.accept(parts.get(2));
+assert whole.size() == 2 && whole.get(0).type() == SSEType.CALL;
+assert whole.get(1).type() == SSEType.WRITE && whole.get(1).id() == 5 && Arrays.equals(whole.get(1).body(), large);
+
+view = LiveView.onPort(50_388); // over the wire, both formats
+List<LiveViewClient.Event> binaryEvents = new CopyOnWriteArrayList<>(), sseEvents = new CopyOnWriteArrayList<>();
+LiveViewClient binaryClient = new LiveViewClient(50_388, "", true, binaryEvents::add);
+LiveViewClient sseClient = new LiveViewClient(50_388, "", false, sseEvents::add);
+while (view.sseClientConnections.size() < 2) Thread.sleep(10);
+Clerk.write(view, new String(large));
+while (binaryEvents.isEmpty() || sseEvents.isEmpty()) Thread.sleep(10);
+assert Arrays.equals(binaryEvents.get(0).body(), large) && Arrays.equals(sseEvents.get(0).body(), large);
+assert binaryEvents.get(0).id() == 1 && sseClient.lastEventId() == 1;
+binaryClient.close();
+sseClient.close();
+view.stop();
+
+// ACKs: the future completes once each connection it was sent over ran it or closed
+view = LiveView.onPort(50_387).setHeartbeat(50).setAckTimeout(60_000); // a closed connection shows up soon
+assert Clerk.writeAsync(view, "nobody").isDone();
+client = new LiveViewClient(50_387, e -> {}); // runs everything at once
+while (view.sseClientConnections.isEmpty()) Thread.sleep(10);
+Clerk.callAsync(view, "f()").get(5, TimeUnit.SECONDS);
+client.close();
+long connections(String id) {
+    return view.sseClientConnections.stream().filter(c -> c.id.equals(id)).count();
+}
+java.net.Socket quiet(String id) throws Exception { // a browser that never reports
+    long before = connections(id);
+    java.net.Socket socket = new java.net.Socket("localhost", 50_387);
+    socket.getOutputStream().write(("GET /events?format=binary&client=" + id + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes());
+    while (connections(id) == before) Thread.sleep(10);
+    return socket;
+}
+java.net.Socket first = quiet("tab");
+CompletableFuture<Void> ack = Clerk.callAsync(view, "g()");
+Thread.sleep(200);
+assert !ack.isDone();
+java.net.Socket second = quiet("tab"); // the tab reconnects before the old connection is noticed gone
+first.close(); // the ACK went over the old one only, nobody runs it now
+ack.get(5, TimeUnit.SECONDS);
+view.setAckTimeout(200);
+try { Clerk.callAsync(view, "h()").get(5, TimeUnit.SECONDS); assert false; } catch (ExecutionException e) {
+    assert e.getCause() instanceof TimeoutException;
+}
+second.close();
+view.stop();
+
+// Bind address: loopback only by default, another interface for relays on other machines
+view = LiveView.onPort(50_386);
+assert view.server.server.getAddress().getAddress().isLoopbackAddress();
+assert view.server.webSocket.socket.getInetAddress().isLoopbackAddress();
+String handshake(String origin, String host) throws Exception { // the status line
+    try (java.net.Socket socket = new java.net.Socket("localhost", view.server.webSocket.port())) {
+        socket.getOutputStream().write(("GET /?client=x HTTP/1.1\r\nHost: " + host + "\r\nUpgrade: websocket\r\n"
+                + "Connection: Upgrade\r\nSec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nSec-WebSocket-Version: 13\r\n"
+                + "Origin: " + origin + "\r\n\r\n").getBytes());
+        return new BufferedReader(new InputStreamReader(socket.getInputStream())).readLine();
+    }
+}
+assert handshake("http://lab.example:50386", "lab.example:1").startsWith("HTTP/1.1 403");
+view.stop();
+LiveView.setBindAddress("0.0.0.0");
+view = LiveView.onPort(50_386);
+LiveView.setBindAddress("localhost");
+assert view.server.server.getAddress().getAddress().isAnyLocalAddress();
+assert view.server.webSocket.socket.getInetAddress().isAnyLocalAddress();
+assert handshake("http://lab.example:50386", "lab.example:1").startsWith("HTTP/1.1 101"); // the page's own host
+assert handshake("http://other.example:50386", "lab.example:1").startsWith("HTTP/1.1 403");
+assert handshake("http://localhost:50386", "lab.example:1").startsWith("HTTP/1.1 101");
+view.stop();
+
+// WebSocket: version 13 only, a CLOSE is answered with the browser's status code
+view = LiveView.onPort(50_385);
+try (java.net.Socket socket = new java.net.Socket("localhost", view.server.webSocket.port())) {
+    socket.getOutputStream().write(("GET /?client=x HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+            + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nSec-WebSocket-Version: 8\r\n\r\n").getBytes());
+    BufferedReader response = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+    assert response.readLine().equals("HTTP/1.1 426 Upgrade Required");
+    assert response.lines().anyMatch(line -> line.equals("Sec-WebSocket-Version: 13"));
+}
+try (java.net.Socket socket = new java.net.Socket("localhost", view.server.webSocket.port())) {
+    socket.getOutputStream().write(("GET /?client=x HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+            + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nSec-WebSocket-Version: 13\r\n\r\n").getBytes());
+    DataInputStream in = new DataInputStream(socket.getInputStream());
+    while (view.sseClientConnections.isEmpty()) Thread.sleep(10);
+    socket.getOutputStream().write(new byte[] { (byte) 0x88, (byte) 0x82, 1, 2, 3, 4, 0x03 ^ 1, (byte) 0xE9 ^ 2 }); // masked 1001
+    String headers = "";
+    while (!headers.endsWith("\r\n\r\n"))
+        headers += (char) in.read();
+    assert headers.startsWith("HTTP/1.1 101");
+    assert Arrays.equals(in.readAllBytes(), new byte[] { (byte) 0x88, 2, 0x03, (byte) 0xE9 }); // then the connection closes
+}
+while (!view.sseClientConnections.isEmpty()) Thread.sleep(10);
+view.stop();
@@ -0,0 +1,297 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// A browser tab without a browser, for tests and load generation. It reads `/events`
+// the way web/script.js does, over SSE or the binary stream, and acknowledges LOADs
+// through `/loaded`. Nothing is rendered or run: a LOAD takes `loadTime`, events
+// arriving meanwhile wait for it, and every event goes to the listener, BATCHes
+// split into the events they hold.
+//
+//   LiveViewClient client = new LiveViewClient(50_001, "", true, event -> ...);
+//   client.post("/slider", "42");
+//   client.close();
+class LiveViewClient implements AutoCloseable {
+    static final HttpClient http = HttpClient.newHttpClient(); // shared by all clients
+
+    record Event(SSEType type, long id, byte[] body) {
+        String data() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+
+        // DATA body: [u8 typed array][u16 length][function name][elements, little-endian]
+        TypedArray arrayType() {
+            return TypedArray.values()[body[0]];
+        }
+
+        String function() {
+            return new String(body, 3, ((body[1] & 0xFF) << 8) | (body[2] & 0xFF), StandardCharsets.UTF_8);
+        }
+
+        ByteBuffer elements() {
+            int offset = 3 + (((body[1] & 0xFF) << 8) | (body[2] & 0xFF));
+            return ByteBuffer.wrap(body, offset, body.length - offset).slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    final int port;
+    final String channel;
+    final String clientId = UUID.randomUUID().toString();
+    final boolean binary; // `/events?format=binary` instead of SSE
+    final CompletableFuture<Void> connected = new CompletableFuture<>();
+    final CompletableFuture<Void> closed = new CompletableFuture<>();
+    volatile Duration loadTime = Duration.ZERO; // how long a script takes to load
+    private final Consumer<Event> listener;
+    private final Map<String, CompletableFuture<Void>> scripts = new ConcurrentHashMap<>(); // by each source of a LOAD
+    private final Queue<Event> waiting = new ArrayDeque<>(); // events arriving while scripts load
+    private final Map<String, String> regions = new ConcurrentHashMap<>(); // HTML by key
+    private int loading = 0;
+    private volatile long lastEventId = 0;
+    private volatile InputStream stream;
+
+    LiveViewClient(int port, String channel, boolean binary, Consumer<Event> listener) {
+        this.port = port;
+        this.channel = channel == null ? "" : channel;
+        this.binary = binary;
+        this.listener = listener;
+        // a platform thread: reading the response blocks inside `synchronized` code of the
+        // HttpClient, which would pin a virtual thread and could starve the server's threads
+        Thread.ofPlatform().daemon().name("LiveViewClient " + clientId).start(this::read);
+    }
+
+    LiveViewClient(int port, Consumer<Event> listener) {
+        this(port, "", true, listener);
+    }
+
+    long lastEventId() {
+        return lastEventId;
+    }
+
+    private URI uri(String path, String query) {
+        String channelQuery = channel.isEmpty() ? "" : "channel=" + URLEncoder.encode(channel, StandardCharsets.UTF_8);
+        String separator = query.isEmpty() || channelQuery.isEmpty() ? "" : "&";
+        return URI.create("http://localhost:" + port + path + (query.isEmpty() && channelQuery.isEmpty() ? "" : "?")
+                + query + separator + channelQuery);
+    }
+
+    private void read() {
+        HttpRequest request = HttpRequest.newBuilder(uri("/events", (binary ? "format=binary&" : "")
+                + "client=" + clientId + "&lastEventId=" + lastEventId)).GET().build();
+        try {
+            HttpResponse<InputStream> response = http.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            if (response.statusCode() != 200)
+                throw new IOException("/events answered " + response.statusCode());
+            stream = response.body();
+            connected.complete(null);
+            if (binary)
+                readBinary(new DataInputStream(new BufferedInputStream(stream)), this::receive);
+            else
+                readEventStream(new BufferedReader(new InputStreamReader(stream, StandardCharsets.US_ASCII)));
+        } catch (IOException | InterruptedException e) {
+            connected.completeExceptionally(e);
+        } finally {
+            close();
+        }
+    }
+
+    // frames `[u32 length][u8 type][u64 id][body]`, up to the end of the stream
+    static void readBinary(DataInputStream in, Consumer<Event> receiver) throws IOException {
+        receiver = reassembling(receiver);
+        while (true) {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                return;
+            }
+            if (length == 0)
+                continue; // a heartbeat
+            byte[] frame = new byte[length];
+            in.readFully(frame);
+            receiver.accept(new Event(SSEType.values()[frame[0]], ByteBuffer.wrap(frame, 1, 8).getLong(),
+                    Arrays.copyOfRange(frame, 9, frame.length)));
+        }
+    }
+
+    // Passes FRAGMENTs `[u8 type][u32 total length][u32 offset][part]` on as the event they
+    // make up, once the last one is in. Events in between come from the interactive lane.
+    // The fragment at offset 0 starts the event anew, a part that doesn't follow on is lost.
+    static Consumer<Event> reassembling(Consumer<Event> receiver) {
+        ByteBuffer[] fragment = { null };
+        return event -> {
+            if (event.type() != SSEType.FRAGMENT) {
+                receiver.accept(event);
+                return;
+            }
+            ByteBuffer part = ByteBuffer.wrap(event.body());
+            SSEType type = SSEType.values()[part.get()];
+            int total = part.getInt(), offset = part.getInt();
+            if (offset == 0)
+                fragment[0] = ByteBuffer.allocate(total);
+            else if (fragment[0] == null || fragment[0].position() != offset)
+                return;
+            fragment[0].put(part);
+            if (!fragment[0].hasRemaining()) {
+                receiver.accept(new Event(type, event.id(), fragment[0].array()));
+                fragment[0] = null;
+            }
+        };
+    }
+
+    // `id: N` and `data: TYPE:<base64>` lines, an empty line ends the event
+    private void readEventStream(BufferedReader in) throws IOException {
+        Consumer<Event> receiver = reassembling(this::receive);
+        long id = 0;
+        String data = null;
+        for (String line = in.readLine(); line != null; line = in.readLine()) {
+            if (line.startsWith("id: ")) {
+                id = Long.parseLong(line.substring(4).trim());
+            } else if (line.startsWith("data: ")) {
+                data = line.substring(6);
+            } else if (line.isEmpty() && data != null) {
+                int splitPos = data.indexOf(':');
+                receiver.accept(new Event(SSEType.valueOf(data.substring(0, splitPos)), id,
+                        Base64.getDecoder().decode(data.substring(splitPos + 1))));
+                id = 0;
+                data = null;
+            }
+        }
+    }
+
+    private synchronized void receive(Event event) {
+        if (event.id() > 0)
+            lastEventId = event.id();
+        if (loading > 0 && event.type() != SSEType.LOAD) {
+            waiting.add(event);
+            return;
+        }
+        handle(event);
+    }
+
+    private synchronized void handle(Event event) {
+        switch (event.type()) {
+            case BATCH -> { // [u8 type][u32 length][body]...
+                ByteBuffer batch = ByteBuffer.wrap(event.body());
+                while (batch.hasRemaining()) {
+                    SSEType type = SSEType.values()[batch.get()];
+                    byte[] body = new byte[batch.getInt()];
+                    batch.get(body);
+                    handle(new Event(type, event.id(), body));
+                }
+            }
+            case LOAD -> {
+                load(event.data());
+                listener.accept(event);
+            }
+            case PATCH -> {
+                patch(event.data());
+                listener.accept(event);
+            }
+            case ACK -> { // nothing is run, so everything before it is done
+                post("/ack", clientId + "\n" + event.data());
+                listener.accept(event);
+            }
+            case CLEAR -> {
+                regions.clear();
+                listener.accept(event);
+            }
+            default -> listener.accept(event);
+        }
+    }
+
+    // LOAD body: the sources separated by ',', then one line per source of a script it depends on
+    private void load(String data) {
+        List<String> lines = data.lines().map(String::trim).toList();
+        String key = lines.get(0);
+        List<String> srcs = Arrays.stream(key.split(",")).map(String::trim).toList();
+        CompletableFuture<Void> loaded = scripts.get(srcs.get(0));
+        if (loaded == null) {
+            CompletableFuture<?>[] dependencies = lines.subList(1, lines.size()).stream()
+                    .map(src -> scripts.getOrDefault(src, CompletableFuture.completedFuture(null)))
+                    .toArray(CompletableFuture[]::new);
+            loaded = CompletableFuture.allOf(dependencies).thenRunAsync(() -> {},
+                    CompletableFuture.delayedExecutor(loadTime.toNanos(), TimeUnit.NANOSECONDS));
+            for (String src : srcs)
+                scripts.put(src, loaded);
+        }
+        loading++;
+        loaded.thenCompose(v -> post("/loaded", clientId + "\n" + key))
+                .whenComplete((status, error) -> loaded());
+    }
+
+    private synchronized void loaded() {
+        loading--;
+        while (loading == 0 && !waiting.isEmpty())
+            handle(waiting.poll());
+    }
+
+    // the HTML of the region `key` as the browser has it, null if there is no such region
+    String region(String key) {
+        return regions.get(key);
+    }
+
+    // PATCH body: `key\n<start> <removed> <old length>\n<inserted>`, removed -1: all of it
+    private void patch(String data) {
+        int first = data.indexOf('\n'), second = data.indexOf('\n', first + 1);
+        String key = data.substring(0, first);
+        String[] range = data.substring(first + 1, second).split(" ");
+        int start = Integer.parseInt(range[0]), removed = Integer.parseInt(range[1]), length = Integer.parseInt(range[2]);
+        String inserted = data.substring(second + 1), html = regions.get(key);
+        if (removed < 0)
+            regions.put(key, inserted);
+        else if (html != null && html.length() == length)
+            regions.put(key, html.substring(0, start) + inserted + html.substring(start + removed));
+        else
+            System.err.println("PATCH of an unknown or outdated region: " + key);
+    }
+
+    // what `Clerk.post` does in the browser, completes with the status code
+    CompletableFuture<Integer> post(String path, String body) {
+        return post(path, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    CompletableFuture<Integer> post(String path, byte[] body) {
+        if (!path.startsWith("/"))
+            path = "/" + path;
+        HttpRequest request = HttpRequest.newBuilder(uri(path, ""))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body)).build();
+        return http.sendAsync(request, HttpResponse.BodyHandlers.discarding()).thenApply(HttpResponse::statusCode);
+    }
+
+    @Override
+    public void close() {
+        InputStream in = stream;
+        try {
+            if (in != null)
+                in.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+        connected.complete(null);
+        closed.complete(null);
+    }
+}
@@ -0,0 +1,135 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+// Fans the events of a LiveView out across processes: the relay subscribes to an
+// upstream view (the primary or another relay, on any host) and re-broadcasts its
+// events to the browsers of a view of its own. Upstream counts the relay as one
+// browser: a LOAD is acknowledged once the relay's browsers have loaded the script,
+// an ACK once they have run it, and input none of the relay's response contexts
+// handles is posted upstream. Relays cascade, the view of one relay can be the
+// upstream of the next. A lost upstream connection is resumed after the last event
+// received.
+//
+//   LiveView primary = Clerk.view();                                 // port 50_001
+//   Relay relay = new Relay("localhost", 50_001, "", LiveView.onPort(50_002));
+//   Relay next = new Relay("localhost", 50_002, "", LiveView.onPort(50_003));
+//
+// Servers listen on the loopback interface only, unless `LiveView.setBindAddress` says
+// otherwise before they start: a relay on another machine needs the upstream to listen
+// on an interface it reaches, and its own view on one its browsers reach.
+//
+//   LiveView.setBindAddress("0.0.0.0");                              // on both machines
+//   Relay remote = new Relay("primary.example", 50_001, "", LiveView.onPort(50_002));
+class Relay implements AutoCloseable {
+    final String host;
+    final int port;
+    final String channel;
+    final LiveView view;
+    final String clientId = "relay-" + UUID.randomUUID();
+    final CompletableFuture<Void> connected = new CompletableFuture<>(); // the first time
+    private volatile long lastEventId = 0;
+    private volatile InputStream stream;
+    private volatile boolean closed = false;
+
+    Relay(String host, int port, String channel, LiveView view) {
+        this.host = host;
+        this.port = port;
+        this.channel = channel == null ? "" : channel;
+        this.view = view;
+        view.forward = (path, body) -> post(path, body.bytes());
+        // a platform thread for the same reason as in LiveViewClient
+        Thread.ofPlatform().daemon().name("Relay " + host + ":" + port).start(this::run);
+    }
+
+    // the default channel of `upstreamPort` on this host
+    Relay(int upstreamPort, LiveView view) {
+        this("localhost", upstreamPort, "", view);
+    }
+
+    private URI uri(String path, String query) {
+        String channelQuery = channel.isEmpty() ? "" : "channel=" + URLEncoder.encode(channel, StandardCharsets.UTF_8);
+        String separator = query.isEmpty() || channelQuery.isEmpty() ? "" : "&";
+        return URI.create("http://" + host + ":" + port + path + (query.isEmpty() && channelQuery.isEmpty() ? "" : "?")
+                + query + separator + channelQuery);
+    }
+
+    private void run() {
+        while (!closed) {
+            HttpRequest request = HttpRequest.newBuilder(uri("/events",
+                    "format=binary&client=" + clientId + "&lastEventId=" + lastEventId)).GET().build();
+            try {
+                HttpResponse<InputStream> response = LiveViewClient.http.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                if (response.statusCode() != 200)
+                    throw new IOException("/events answered " + response.statusCode());
+                stream = response.body();
+                connected.complete(null);
+                LiveViewClient.readBinary(new DataInputStream(new BufferedInputStream(stream)), this::relay);
+            } catch (IOException e) {
+                if (!closed)
+                    System.err.println("Relay lost " + host + ":" + port + ": " + e.getMessage());
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                if (!closed)
+                    Thread.sleep(1_000); // then reconnect
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void relay(LiveViewClient.Event event) {
+        if (event.id() > 0)
+            lastEventId = event.id();
+        if (event.type() == SSEType.LOAD) { // acknowledged when the relay's browsers have loaded it
+            List<String> lines = event.data().lines().map(String::trim).toList();
+            String key = lines.get(0);
+            view.load(key, lines.subList(1, lines.size()))
+                    .whenComplete((result, error) -> post("/loaded", (clientId + "\n" + key).getBytes(StandardCharsets.UTF_8)));
+            return;
+        }
+        if (event.type() == SSEType.ACK) { // confirmed once the relay's browsers have run it
+            String number = event.data();
+            view.acknowledge()
+                    .whenComplete((result, error) -> post("/ack", (clientId + "\n" + number).getBytes(StandardCharsets.UTF_8)));
+            return;
+        }
+        view.sendServerEvent(new ServerEvent(event.type(), event.body()));
+    }
+
+    private void post(String path, byte[] body) {
+        HttpRequest request = HttpRequest.newBuilder(uri(path, ""))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body)).build();
+        LiveViewClient.http.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .whenComplete((response, error) -> {
+                    if (error != null || response.statusCode() != 200)
+                        System.err.println("Relay could not post " + path + " upstream: "
+                                + (error != null ? error.getMessage() : response.statusCode()));
+                });
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        view.forward = null;
+        InputStream in = stream;
+        try {
+            if (in != null)
+                in.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+        connected.complete(null);
+    }
+}
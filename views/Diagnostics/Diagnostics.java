@@ -0,0 +1,59 @@
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Latency breakdown of a traced view, rendered into another view once a second: for
+// each SSEType and stage of its Tracer the median, the 90th percentile (upper bounds
+// of the histogram buckets) and the number of events. By default it is shown in the
+// channel "diagnostics" on the traced view's port, so its own updates aren't traced.
+//
+//   Diagnostics diagnostics = new Diagnostics(Clerk.view()); // http://localhost:50001/?channel=diagnostics
+class Diagnostics implements Clerk, AutoCloseable {
+    final String ID;
+    final LiveView display, traced;
+    final Region table;
+    private final ScheduledFuture<?> refresh;
+
+    Diagnostics(LiveView display, LiveView traced) {
+        this.display = display;
+        this.traced = traced;
+        ID = Clerk.getHashID(this);
+        traced.setTracing(true);
+        table = Clerk.region(display, "diagnostics" + ID);
+        refresh = display.scheduler.scheduleAtFixedRate(this::render, 0, 1, TimeUnit.SECONDS);
+    }
+
+    Diagnostics(LiveView traced) {
+        this(LiveView.onPort(traced.port, "diagnostics"), traced);
+    }
+
+    private void render() {
+        StringBuilder html = new StringBuilder("<table class='diagnostics'><tr><th>")
+                .append(traced.channel.isEmpty() ? "port " + traced.port : traced.channel).append("</th>");
+        for (Tracer.Stage stage : Tracer.Stage.values())
+            html.append("<th>").append(stage).append("</th>");
+        html.append("</tr>");
+        for (SSEType type : SSEType.values()) {
+            if (traced.tracer.snapshot(Tracer.Stage.SEND, type).count() == 0)
+                continue;
+            html.append("<tr><td>").append(type).append("</td>");
+            for (Tracer.Stage stage : Tracer.Stage.values()) {
+                Histogram.Snapshot snapshot = traced.tracer.snapshot(stage, type);
+                html.append("<td>").append(snapshot.count() == 0 ? "" : millis(snapshot.quantile(0.5)) + " / "
+                        + millis(snapshot.quantile(0.9)) + " ms (" + snapshot.count() + ")").append("</td>");
+            }
+            html.append("</tr>");
+        }
+        table.set(html.append("</table>").toString());
+    }
+
+    private static String millis(double seconds) {
+        double millis = seconds * 1_000;
+        return Double.isInfinite(millis) ? "∞" : String.format(millis >= 100 ? "%.0f" : "%.3g", millis);
+    }
+
+    @Override
+    public void close() {
+        refresh.cancel(false);
+        traced.setTracing(false);
+    }
+}
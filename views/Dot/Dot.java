@@ -12,7 +12,7 @@ class Dot implements Clerk {
         this.height = height;
 
         Clerk.load(view, visLibOnlinePath, visLibOfflinePath);
-        Clerk.load(view, dotLibPath);
+        Clerk.load(view, dotLibPath, List.of(visLibOfflinePath));
 
         ID = Clerk.getHashID(this);
 
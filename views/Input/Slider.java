@@ -12,14 +12,14 @@ class Slider implements Clerk {
         Clerk.script(view, Text.fillOut(
             """
             slider${0}.addEventListener('input', (event) => {
-                if (locks.includes('${0}')) return;
-                locks.push('${0}');
+                if (Clerk.locks.has('${0}')) return; // until the RELEASE of the last value
+                Clerk.locks.add('${0}');
                 const value = event.target.value;
                 console.log(`slider${0}: value = ${value}`);
-                fetch('slider${0}', {
-                   method: 'post',
-                    body: value.toString()
-                }).catch(console.error);
+                Clerk.post('slider${0}', value.toString()).catch(error => {
+                    Clerk.locks.delete('${0}');
+                    console.error(error);
+                });
             });
             """, Map.of("0", ID, "value", "${value}")));
         return this;
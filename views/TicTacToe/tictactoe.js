@@ -18,7 +18,7 @@ class TicTacToe {
             const indexX = Math.floor(event.offsetX / this.fieldWidth);
             const index = indexX + indexY * 3;
             console.log(`Clicked at X: ${indexX} Y: ${indexY} => ${index}`);
-            fetch(endpoint, {method: "post", body: index.toString()}).catch(console.log);
+            Clerk.post(endpoint, index.toString()).catch(console.log);
         });
     }
 
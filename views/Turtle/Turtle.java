@@ -26,6 +26,21 @@ enum Font {
 }
 
 class Turtle implements Clerk {
+    // the browser side of each operation, defined once per view; the first argument is the ID
+    static final Map<String, String> commands = Map.ofEntries(
+            Map.entry("turtle.penDown", "(id) => Turtle.instances.get(id).penDown()"),
+            Map.entry("turtle.penUp", "(id) => Turtle.instances.get(id).penUp()"),
+            Map.entry("turtle.forward", "(id, distance) => Turtle.instances.get(id).forward(distance)"),
+            Map.entry("turtle.backward", "(id, distance) => Turtle.instances.get(id).backward(distance)"),
+            Map.entry("turtle.left", "(id, degrees) => Turtle.instances.get(id).left(degrees)"),
+            Map.entry("turtle.right", "(id, degrees) => Turtle.instances.get(id).right(degrees)"),
+            Map.entry("turtle.color", "(id, r, g, b) => Turtle.instances.get(id).color(`rgb(${r}, ${g}, ${b})`)"),
+            Map.entry("turtle.lineWidth", "(id, width) => Turtle.instances.get(id).lineWidth(width)"),
+            Map.entry("turtle.reset", "(id) => Turtle.instances.get(id).reset()"),
+            Map.entry("turtle.text", "(id, text, font, align) => Turtle.instances.get(id).text(text, font, align)"),
+            Map.entry("turtle.moveTo", "(id, x, y) => Turtle.instances.get(id).moveTo(x, y)"),
+            Map.entry("turtle.lineTo", "(id, x, y) => Turtle.instances.get(id).lineTo(x, y)"));
+
     final String ID;
     LiveView view;
     final int width, height;
@@ -41,7 +56,8 @@ class Turtle implements Clerk {
         Clerk.load(view, "views/Turtle/turtle.js");
         Clerk.write(view, "<canvas id='turtleCanvas" + ID + "' width='" + this.width + "' height='" + this.height
                 + "' style='border:1px solid #000;'></canvas>");
-        Clerk.script(view, "const turtle" + ID + " = new Turtle(document.getElementById('turtleCanvas" + ID + "'));");
+        Clerk.script(view, "const turtle" + ID + " = new Turtle(document.getElementById('turtleCanvas" + ID + "'));"
+                + " Turtle.instances.set('" + ID + "', turtle" + ID + ");");
     }
 
     Turtle(LiveView view) {
@@ -56,40 +72,40 @@ class Turtle implements Clerk {
         this(Clerk.view());
     }
 
-    Turtle penDown() {
-        Clerk.call(view, "turtle" + ID + ".penDown();");
+    private Turtle command(String name, Object... args) {
+        Object[] withID = new Object[args.length + 1];
+        withID[0] = ID;
+        System.arraycopy(args, 0, withID, 1, args.length);
+        Clerk.command(view, name, commands.get(name)).call(withID);
         return this;
     }
 
+    Turtle penDown() {
+        return command("turtle.penDown");
+    }
+
     Turtle penUp() {
-        Clerk.call(view, "turtle" + ID + ".penUp();");
-        return this;
+        return command("turtle.penUp");
     }
 
     Turtle forward(double distance) {
-        Clerk.call(view, "turtle" + ID + ".forward(" + distance + ");");
-        return this;
+        return command("turtle.forward", distance);
     }
 
     Turtle backward(double distance) {
-        Clerk.call(view, "turtle" + ID + ".backward(" + distance + ");");
-        return this;
+        return command("turtle.backward", distance);
     }
 
     Turtle left(double degrees) {
-        Clerk.call(view, "turtle" + ID + ".left(" + degrees + ");");
-        return this;
+        return command("turtle.left", degrees);
     }
 
     Turtle right(double degrees) {
-        Clerk.call(view, "turtle" + ID + ".right(" + degrees + ");");
-        return this;
+        return command("turtle.right", degrees);
     }
 
     Turtle color(int red, int green, int blue) {
-        Clerk.call(view,
-                "turtle" + ID + ".color('rgb(" + (red & 0xFF) + ", " + (green & 0xFF) + ", " + (blue & 0xFF) + ")');");
-        return this;
+        return command("turtle.color", red & 0xFF, green & 0xFF, blue & 0xFF);
     }
 
     Turtle color(int rgb) {
@@ -98,21 +114,19 @@ class Turtle implements Clerk {
     }
 
     Turtle lineWidth(double width) {
-        Clerk.call(view, "turtle" + ID + ".lineWidth('" + width + "');");
-        return this;
+        return command("turtle.lineWidth", width);
     }
 
     Turtle reset() {
-        Clerk.call(view, "turtle" + ID + ".reset();");
-        return this;
+        return command("turtle.reset");
     }
 
+    // the text goes as it is, quotes and backslashes included
     Turtle text(String text, Font font, double size, Font.Align align) {
         textFont = font;
         textSize = size;
         textAlign = align;
-        Clerk.call(view, "turtle" + ID + ".text('" + text + "', '" + "" + size + "px " + font + "', '" + align + "')");
-        return this;
+        return command("turtle.text", text, size + "px " + font, align);
     }
 
     Turtle text(String text) {
@@ -120,12 +134,10 @@ class Turtle implements Clerk {
     }
 
     Turtle moveTo(double x, double y) {
-        Clerk.call(view, "turtle" + ID + ".moveTo(" + x + ", " + y + ");");
-        return this;
+        return command("turtle.moveTo", x, y);
     }
 
     Turtle lineTo(double x, double y) {
-        Clerk.call(view, "turtle" + ID + ".lineTo(" + x + ", " + y + ");");
-        return this;
+        return command("turtle.lineTo", x, y);
     }
 }
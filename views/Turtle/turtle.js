@@ -1,4 +1,6 @@
 class Turtle {
+    static instances = new Map(); // by the ID of the Java Turtle, see `Turtle.commands`
+
     constructor(canvas) {
         this.canvas = canvas;
         this.ctx = canvas.getContext('2d');
@@ -1,3 +1,5 @@
+import java.nio.IntBuffer;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.Set;
@@ -92,8 +94,8 @@ class Game implements Clerk {
         }
         lastUpdateTimeUpdate = currentTime;
 
-        // updateCamera
-        Clerk.call(view,
+        // updateCamera, ahead of chunks still on their way
+        Clerk.callInteractive(view,
                 "gl" + ID + ".updateCamera(" + playerPos[0] + "," + (playerPos[1] + CAMERA_HEIGHT) + "," + playerPos[2]
                         + ","
                         + yaw + "," + pitch + ");");
@@ -279,7 +281,8 @@ class Game implements Clerk {
         }
 
         public void load() {
-            StringBuilder call = new StringBuilder();
+            // (x, y, z, blockType) quadruples, sent as an Int32Array
+            IntBuffer blockData = IntBuffer.allocate(4 * CHUNK_SIZE * MAX_HEIGHT * CHUNK_SIZE);
             for (int i = 0; i < CHUNK_SIZE; i++) {
                 for (int j = 0; j < MAX_HEIGHT; j++) {
                     for (int k = 0; k < CHUNK_SIZE; k++) {
@@ -289,15 +292,13 @@ class Game implements Clerk {
                             int globalY = j;
 
                             if (isVisible(globalX, globalY, globalZ)) {
-                                call.append("gl").append(ID).append(".addBlock(")
-                                        .append(globalX).append(",").append(globalY).append(",").append(globalZ)
-                                        .append(",").append(blocks[i][j][k].getId()).append(");");
+                                blockData.put(globalX).put(globalY).put(globalZ).put(blocks[i][j][k].getId());
                             }
                         }
                     }
                 }
             }
-            Clerk.call(view, call.toString());
+            Clerk.call(view, "gl" + ID + ".addBlocks", Arrays.copyOf(blockData.array(), blockData.position()));
         }
 
         public void unload() {
@@ -520,12 +521,10 @@ class Game implements Clerk {
 
     // mouseEvent
     private void handleMouseMove() {
-        view.createResponseContext("/mouseevent", (data) -> {
-            // Parse the incoming JSON data
-            String[] parts = data.replaceAll("[^0-9.,-]", "").split(",");
-
-            double mouseX = Double.parseDouble(parts[0]);
-            double mouseY = Double.parseDouble(parts[1]);
+        view.createBodyContext("/mouseevent", (body) -> {
+            // `{"mouseMoveX":x,"mouseMoveY":y}`, parsed in place
+            double mouseX = body.nextDouble();
+            double mouseY = body.nextDouble();
 
             // Update yaw and pitch
             yaw -= mouseX * mouseSensitivity;
@@ -546,7 +545,7 @@ class Game implements Clerk {
             frontVector = VectorUtils.normalize(frontVector);
 
             updateCamera();
-        });
+        }, 1, 64); // one at a time: the handler updates yaw and pitch
     }
     // mouseEvent
 
@@ -569,6 +568,7 @@ class Game implements Clerk {
             }
             while (!activeKeys.isEmpty()) {
                 handleKeyboard();
+                waitForNextUpdate();
             }
         });
     }
@@ -667,6 +667,16 @@ class Game implements Clerk {
     private void startGameLoop() {
         while (true) {
             applyGravity();
+            waitForNextUpdate();
+        }
+    }
+
+    // handlers run on virtual threads, a busy loop would hold on to its carrier thread
+    private static void waitForNextUpdate() {
+        try {
+            Thread.sleep(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
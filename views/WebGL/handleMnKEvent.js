@@ -90,14 +90,7 @@ const mnKEvent = {
 
     sendUpdateKey: async function(data) {
         try {
-            await fetch('http://localhost:' + window.location.port + '/keyevent', {
-                method: 'POST',
-                body: JSON.stringify(data),
-                headers: {
-                    'Content-Type': 'application/json'
-                },
-                keepalive: true
-            });
+            await Clerk.post('/keyevent', JSON.stringify(data));
         } catch (error) {
             console.error('Failed to send key update:', error);
         }
@@ -106,14 +99,7 @@ const mnKEvent = {
     // split mouse data to avoid sending to much data to the same url
     sendUpdateMouse: async function(data) {
         try {
-            await fetch('http://localhost:' + window.location.port + '/mouseevent', {
-                method: 'POST',
-                body: JSON.stringify(data),
-                headers: {
-                    'Content-Type': 'application/json'
-                },
-                keepalive: true
-            });
+            await Clerk.post('/mouseevent', JSON.stringify(data));
         } catch (error) {
             console.error('Failed to send mouse update:', error);
         }
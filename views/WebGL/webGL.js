@@ -84,6 +84,13 @@ class WebGL {
         this.blocksMap.set(key, shape);
     }
 
+    // blocks as an Int32Array of (x, y, z, blockType) quadruples
+    addBlocks(blocks) {
+        for (let i = 0; i + 3 < blocks.length; i += 4) {
+            this.addBlock(blocks[i], blocks[i + 1], blocks[i + 2], blocks[i + 3]);
+        }
+    }
+
     removeBlock(x, y, z) {
         const key = `${x},${y},${z}`;
         this.blocksMap.delete(key);
@@ -213,10 +220,7 @@ class WebGL {
             ]);
 
             // Notify Java that textures are loaded
-            fetch('http://localhost:' + window.location.port + '/texturesload', {
-                method: 'POST',
-                body: JSON.stringify("Loaded textures"),
-            })
+            Clerk.post('/texturesload', JSON.stringify("Loaded textures"));
 
             return true;
         } catch (error) {
@@ -6,89 +6,609 @@ window.vec3 = vec3;
 
 const loadedDiv = document.getElementById('loadMessage');
 
-function loadScript(src, onError = () => console.log('script loading failed: ', src)) {
-    var script = document.createElement('script');
-    script.src = src;
-    script.onload = function() {
-        script.classList.add("persistent");
-        console.log('script loaded:', src);
-        fetch("/loaded", { method: "post" }).catch(console.log);
-    };
-    script.onerror = onError;
-    document.body.appendChild(script);
+function loadScript(src) {
+    return new Promise((resolve, reject) => {
+        var script = document.createElement('script');
+        script.src = src;
+        script.onload = function() {
+            script.classList.add("persistent");
+            console.log('script loaded:', src);
+            resolve();
+        };
+        script.onerror = () => reject(src);
+        document.body.appendChild(script);
+    });
 }
 
 function loadScriptWithFallback(onlineSrc, offlineSrc) {
-    loadScript(onlineSrc, function() {
+    return loadScript(onlineSrc).catch(() => {
         console.log('loading', onlineSrc, 'failed, trying', offlineSrc);
-        loadScript(offlineSrc);
+        return loadScript(offlineSrc);
+    });
+}
+
+// LOADs start right away and run in parallel, every other event waits until the
+// scripts are loaded, it may depend on them. A LOAD of a script that is already
+// loaded (or loading) is only acknowledged.
+const scripts = new Map(); // the loading promise by each source of a LOAD
+let loading = 0;
+let lastEventId = 0; // sent when reconnecting to get only the missed events
+const clientId = crypto.randomUUID ? crypto.randomUUID() : Math.random().toString(36).slice(2);
+const channel = new URLSearchParams(window.location.search).get("channel"); // see LiveViewServer
+const channelQuery = channel ? "&channel=" + encodeURIComponent(channel) : "";
+const exported = document.getElementById("staticEvents"); // the events of a `StaticExport`
+
+// Events are queued and run once per animation frame, for at most `frameBudget` ms, so
+// a burst of events doesn't freeze the page. Hidden tabs get no animation frames, their
+// queue is drained by a timer. The number of queued events (a BATCH counts the events it
+// holds) is reported to `/backlog` when it moved by `reportStep` events or a quarter of
+// the last report, at most every `reportInterval` ms, and once it is empty again; the
+// server slows down or coalesces events while a browser falls behind, see
+// `LiveView.setBacklogLimit`. A backlog of a few events, the normal state, isn't reported.
+const frameBudget = 8;
+const reportInterval = 100;
+const reportStep = 32;
+const queue = []; // [action, bytes, events]
+let backlog = 0;
+let drainScheduled = false;
+let reportedBacklog = 0;
+let lastReport = 0;
+// The number of the last ACK run, confirming it and everything before it; reported to
+// `/ack` once per frame at most, see `LiveView.sendAcknowledged`.
+let acknowledged = 0;
+let reportedAck = 0;
+// While `Clerk.tracing` is on (see `Tracer`), each event with an id is timed from its
+// arrival; `<id> <received> <queue ms> <run ms>` lines go to `/trace` every `traceInterval` ms.
+const traceInterval = 1000;
+let traces = [];
+let traceTimer = null;
+
+function receive(action, id, bytes) {
+    if (action === "FRAGMENT") {
+        reassemble(id, bytes);
+        return;
+    }
+    if (id > 0 && fragment === null) lastEventId = id; // not beyond an event still in fragments
+    // a LOAD keeps its place behind queued events, unless they wait for a script anyway
+    if (action === "LOAD" && (loading > 0 || queue.length === 0)) {
+        execute(action, bytes);
+        return;
+    }
+    const events = action === "BATCH" ? batchSize(bytes) : 1;
+    queue.push([action, bytes, events, id, Clerk.tracing && id > 0 ? performance.now() : 0]);
+    backlog += events;
+    scheduleDrain();
+    reportBacklog();
+}
+
+// A large event comes in FRAGMENTs `[u8 type][u32 total length][u32 offset][part]`,
+// interactive events may arrive in between (see `ServerEvent`). The last fragment
+// carries the id. A new connection replays an unfinished event from offset 0, so the
+// fragments of the old one are thrown away.
+let fragment = null; // { action, bytes, filled }
+
+function reassemble(id, bytes) {
+    const view = new DataView(bytes.buffer, bytes.byteOffset, bytes.byteLength);
+    const offset = view.getUint32(5);
+    if (offset === 0)
+        fragment = { action: actions[bytes[0]], bytes: new Uint8Array(view.getUint32(1)), filled: 0 };
+    else if (fragment === null || offset !== fragment.filled)
+        return; // the start of the event went with a closed connection
+    fragment.bytes.set(bytes.subarray(9), fragment.filled);
+    fragment.filled += bytes.length - 9;
+    if (fragment.filled < fragment.bytes.length) return;
+    const { action, bytes: whole } = fragment;
+    fragment = null;
+    receive(action, id, whole);
+}
+
+function execute(action, bytes, id = 0) {
+    runningId = id;
+    writeIndex = 0;
+    try {
+        handleBytes(action, bytes);
+    } catch (error) {
+        console.error(error);
+    }
+}
+
+function scheduleDrain() {
+    if (drainScheduled || queue.length === 0 || (loading > 0 && queue[0][0] !== "LOAD")) return;
+    drainScheduled = true;
+    if (document.hidden || !window.requestAnimationFrame) setTimeout(drain, 0);
+    else requestAnimationFrame(drain);
+}
+
+// a frame requested before the tab was hidden doesn't come until it is visible again
+document.addEventListener("visibilitychange", () => {
+    drainScheduled = false;
+    scheduleDrain();
+});
+
+function drain() {
+    drainScheduled = false;
+    const deadline = performance.now() + frameBudget;
+    while (queue.length > 0 && (loading === 0 || queue[0][0] === "LOAD")) {
+        const [action, bytes, events, id, received] = queue.shift();
+        backlog -= events;
+        const start = received ? performance.now() : 0;
+        execute(action, bytes, id);
+        if (received) trace(id, received, start);
+        if (performance.now() >= deadline) break;
+    }
+    scheduleDrain();
+    reportBacklog();
+    reportAck();
+    evict();
+}
+
+function trace(id, received, start) {
+    if (traces.length >= 10000) return; // until the next report
+    traces.push(id + " " + Math.round(performance.timeOrigin + received) + " " + (start - received).toFixed(2)
+        + " " + (performance.now() - start).toFixed(2));
+    traceTimer ??= setTimeout(() => {
+        traceTimer = null;
+        Clerk.post("/trace", clientId + "\n" + traces.join("\n")).catch(() => {});
+        traces = [];
+    }, traceInterval);
+}
+
+function reportAck() {
+    if (acknowledged === reportedAck) return;
+    reportedAck = acknowledged;
+    Clerk.post("/ack", clientId + "\n" + acknowledged).catch(() => {});
+}
+
+function reportBacklog() {
+    const now = performance.now();
+    if (backlog > 0 ? Math.abs(backlog - reportedBacklog) < Math.max(reportStep, reportedBacklog / 4)
+            || now - lastReport < reportInterval : reportedBacklog === 0) return;
+    reportedBacklog = backlog;
+    lastReport = now;
+    Clerk.post("/backlog", clientId + "\n" + backlog).catch(() => {});
+}
+
+// LOAD body: the sources, separated by ',' with the fallback last, then one line per
+// source of a script it depends on
+function load(data) {
+    const [key, ...dependencies] = data.split('\n').map(line => line.trim());
+    const srcs = key.split(',').map(src => src.trim());
+    const acknowledge = () => Clerk.post("/loaded", clientId + "\n" + key).catch(console.log);
+    let loaded = scripts.get(srcs[0]);
+    if (!loaded) {
+        loaded = Promise.all(dependencies.map(src => scripts.get(src)?.catch(() => {})))
+            .then(() => srcs.length >= 2 ? loadScriptWithFallback(srcs[0], srcs[1]) : loadScript(srcs[0]));
+        srcs.forEach(src => scripts.set(src, loaded));
+        loaded.catch(src => {
+            console.log('script loading failed: ', src);
+            srcs.forEach(src => scripts.delete(src)); // the server asks again
+        });
+    }
+    loading++;
+    loaded.then(acknowledge, () => {}).finally(() => {
+        loading--;
+        scheduleDrain();
     });
 }
 
+const actions = ["WRITE", "CALL", "SCRIPT", "LOAD", "CLEAR", "RELEASE", "DATA", "BATCH", "PATCH", "DEFINE", "COMMAND", "FRAGMENT", "ACK"]; // order of `SSEType`
+const typedArrays = [Uint8Array, Int32Array, Float32Array, Float64Array]; // order of `TypedArray`
+const decoder = new TextDecoder("utf-8");
+const regions = new Map(); // the element and HTML of each region by its key, see `LiveView.updateRegion`
+const commands = []; // functions by opcode, see `LiveView.command`
+
+function handleBytes(action, bytes) {
+    if (action === "DATA") handleData(bytes);
+    else if (action === "COMMAND") handleCommand(bytes);
+    else if (action === "BATCH") handleBatch(bytes);
+    else handle(action, decoder.decode(bytes));
+}
+
+// BATCH body: [u8 type][u32 length][body]..., replayed in order. A run of CALLs is
+// compiled into a single Function; each call keeps a function and a try block of its
+// own, so a `return` or an error in one doesn't stop the others, as if it ran alone.
+// If the run doesn't compile, the calls run one by one.
+function handleBatch(bytes) {
+    const view = new DataView(bytes.buffer, bytes.byteOffset, bytes.byteLength);
+    let calls = [];
+    const runCalls = () => {
+        if (calls.length === 0) return;
+        let compiled = null;
+        try {
+            compiled = Function(calls.map(call =>
+                `try {\n(function() {\n${call}\n}).apply();\n} catch (error) { console.error(error); }`).join("\n"));
+        } catch (error) {
+            calls.forEach(call => {
+                try {
+                    handle("CALL", call);
+                } catch (error) {
+                    console.error(error);
+                }
+            });
+        }
+        calls = [];
+        if (compiled) compiled.apply();
+    };
+    for (let pos = 0; pos < bytes.length;) {
+        const action = actions[bytes[pos]];
+        const length = view.getUint32(pos + 1);
+        const body = bytes.subarray(pos + 5, pos + 5 + length);
+        pos += 5 + length;
+        if (action === "CALL") {
+            calls.push(decoder.decode(body));
+            continue;
+        }
+        runCalls();
+        try {
+            handleBytes(action, body);
+        } catch (error) {
+            console.error(error);
+        }
+    }
+    runCalls();
+}
+
+function batchSize(bytes) {
+    const view = new DataView(bytes.buffer, bytes.byteOffset, bytes.byteLength);
+    let events = 0;
+    for (let pos = 0; pos + 5 <= bytes.length; pos += 5 + view.getUint32(pos + 1)) events++;
+    return events;
+}
+
+// DATA body: [u8 typed array][u16 length][function name][elements, little-endian]
+function handleData(bytes) {
+    const nameLength = (bytes[1] << 8) | bytes[2];
+    const name = decoder.decode(bytes.subarray(3, 3 + nameLength));
+    const array = new typedArrays[bytes[0]](bytes.slice(3 + nameLength).buffer); // copy to an aligned buffer
+    const splitPos = name.lastIndexOf(".");
+    const target = splitPos < 0 ? window : Function("return " + name.slice(0, splitPos))();
+    target[name.slice(splitPos + 1)](array);
+}
+
+// COMMAND body: [u16 opcode][u8 tag][value]..., little-endian, tags as in `ServerEvent.command`
+function handleCommand(bytes) {
+    const view = new DataView(bytes.buffer, bytes.byteOffset, bytes.byteLength);
+    const args = [];
+    for (let pos = 2; pos < bytes.length;) {
+        switch (bytes[pos++]) {
+            case 0: args.push(null); break;
+            case 1: args.push(bytes[pos++] !== 0); break;
+            case 2: args.push(view.getInt32(pos, true)); pos += 4; break;
+            case 3: args.push(view.getFloat64(pos, true)); pos += 8; break;
+            case 4: {
+                const length = view.getUint32(pos, true);
+                args.push(decoder.decode(bytes.subarray(pos + 4, pos + 4 + length)));
+                pos += 4 + length;
+                break;
+            }
+            default: throw new Error("unknown argument tag " + bytes[pos - 1]);
+        }
+    }
+    const opcode = view.getUint16(0, true);
+    if (!commands[opcode]) throw new Error("undefined command " + opcode);
+    commands[opcode](...args);
+}
+
+function handle(action, data) {
+    switch (action) {
+        case "CALL": {
+            Function(data).apply(); // https://www.educative.io/answers/eval-vs-function-in-javascript
+            break;
+        }
+        case "SCRIPT": {
+            const newElement = document.createElement("script");
+            newElement.innerHTML = data;
+            document.body.appendChild(newElement);
+            break;
+        }
+        case "WRITE":
+            document.getElementById("events").appendChild(entry(data));
+            break;
+        case "LOAD": {
+            loadedDiv.style.display = 'block';
+            setTimeout(() => {
+                loadedDiv.style.display = 'none';
+            }, 300);
+            load(data);
+            break;
+        }
+        case "CLEAR": {
+            const element = document.getElementById("events");
+            regions.clear();
+            evictedObserver?.disconnect();
+            liveEntries = 0;
+            while (element.firstChild) {
+                element.removeChild(element.firstChild);
+            }
+
+            const toRemove = [];
+            for (const node of document.body.children) {
+                if (node.classList == null || !node.classList.contains("persistent")) {
+                    toRemove.push(node);
+                }
+            }
+            toRemove.forEach(x => document.body.removeChild(x));
+
+            break;
+        }
+        case "PATCH": { // `key\n<start> <removed> <old length>\n<inserted>`, removed -1: all of it
+            const first = data.indexOf("\n");
+            const second = data.indexOf("\n", first + 1);
+            const key = data.slice(0, first);
+            const [start, removed, length] = data.slice(first + 1, second).split(" ").map(Number);
+            const inserted = data.slice(second + 1);
+            let region = regions.get(key);
+            if (removed < 0) {
+                if (!region) {
+                    region = { element: document.createElement("div"), html: "" };
+                    document.getElementById("events").appendChild(region.element);
+                    regions.set(key, region);
+                }
+                region.html = inserted;
+            } else if (region && region.html.length === length) {
+                region.html = region.html.slice(0, start) + inserted + region.html.slice(start + removed);
+            } else {
+                console.error("PATCH of an unknown or outdated region:", key);
+                break;
+            }
+            region.element.innerHTML = region.html;
+            break;
+        }
+        case "DEFINE": { // `<opcode>\n<name>\n<function>`, compiled once
+            const first = data.indexOf("\n");
+            const second = data.indexOf("\n", first + 1);
+            commands[Number(data.slice(0, first))] = Function("return (" + data.slice(second + 1) + ");")();
+            break;
+        }
+        case "RELEASE":
+            Clerk.locks.delete(data);
+            break;
+        case "ACK":
+            acknowledged = Math.max(acknowledged, Number(data));
+            break;
+        default:
+            console.log("Unknown Action");
+            break;
+    }
+}
+
+// The output log: each WRITE is an entry of #events, keyed `<event id>.<index of the
+// WRITE in the event>`. Once per frame, beyond `Clerk.scrollback` entries, those farthest
+// from the viewport leave the DOM for a placeholder of their height; neighbouring
+// placeholders merge. A placeholder coming near the viewport fetches its entries back,
+// a page at a time, from the event log (`/history`, see `LiveView.history`); entries
+// the log no longer has collapse. Entries within a screen height of the viewport stay,
+// however many there are, and so do entries holding an element id, views address their
+// elements by id, and those of a static export, which has no server.
+const historyPage = 50;
+const evictedObserver = window.IntersectionObserver && !exported ? new IntersectionObserver(observed => {
+    for (const { target, isIntersecting } of observed) if (isIntersecting) rehydrate(target);
+}, { rootMargin: "100% 0px" }) : null;
+let runningId = 0; // id of the event being run
+let writeIndex = 0; // WRITEs of that event so far
+let liveEntries = 0; // evictable entries in the DOM
+
+function entry(html) {
+    const element = document.createElement("div");
+    element.innerHTML = html;
+    if (evictedObserver && runningId > 0 && !element.querySelector("[id]")) {
+        element.dataset.key = runningId + "." + writeIndex;
+        liveEntries++;
+    }
+    writeIndex++;
+    return element;
+}
+
+function evict() {
+    if (!evictedObserver || Clerk.scrollback <= 0 || liveEntries <= Clerk.scrollback) return;
+    const entries = document.getElementById("events").querySelectorAll(":scope > [data-key]");
+    // all measured first, then all evicted: a measure after a change of the DOM costs a
+    // layout, and a placeholder takes an entry's place at its height, the others don't move
+    const evicted = []; // [element, height]
+    let first = 0, last = entries.length - 1;
+    for (let excess = liveEntries - Clerk.scrollback; excess > 0 && first <= last; excess--) {
+        const top = entries[first].getBoundingClientRect(), bottom = entries[last].getBoundingClientRect();
+        const above = -top.bottom, below = bottom.top - window.innerHeight;
+        if (Math.max(above, below) <= window.innerHeight) break; // where placeholders are fetched
+        evicted.push(above >= below ? [entries[first++], top.height] : [entries[last--], bottom.height]);
+    }
+    const resized = new Set();
+    for (const [element, height] of evicted) resized.add(evictEntry(element, height));
+    resized.forEach(resize);
+}
+
+// moves the entry into a neighbouring placeholder and returns it, to be resized
+function evictEntry(element, height) {
+    const before = placeholder(element.previousElementSibling), after = placeholder(element.nextElementSibling);
+    const target = before ?? after ?? newPlaceholder([], placeholder => element.before(placeholder));
+    if (target === before) target.evicted.push([element.dataset.key, height]);
+    else target.evicted.unshift([element.dataset.key, height]);
+    element.remove();
+    liveEntries--;
+    if (before && after) { // the gap between them is closed
+        before.evicted.push(...after.evicted);
+        evictedObserver.unobserve(after);
+        after.remove();
+    }
+    return target;
+}
+
+// a placeholder that can take more entries, not one whose entries are being fetched
+function placeholder(element) {
+    return element?.evicted && !element.fetching ? element : null;
+}
+
+function newPlaceholder(evicted, place) {
+    const target = document.createElement("div");
+    target.className = "evicted";
+    target.evicted = evicted; // [key, height]
+    place(target);
+    resize(target);
+    evictedObserver.observe(target);
+    return target;
+}
+
+function resize(target) {
+    target.style.height = target.evicted.reduce((sum, [, height]) => sum + height, 0) + "px";
+}
+
+// Fetches the page of entries where the viewport is, the last ones of a placeholder above
+// it, the first ones of a placeholder below it, and puts them in their place; the entries
+// beyond them get a placeholder of their own.
+function rehydrate(target) {
+    if (target.fetching || !target.isConnected) return;
+    target.fetching = true;
+    let start = 0;
+    for (let offset = -target.getBoundingClientRect().top; start < target.evicted.length && offset >= target.evicted[start][1];)
+        offset -= target.evicted[start++][1];
+    start = Math.max(0, Math.min(start, target.evicted.length - historyPage));
+    const page = target.evicted.slice(start, start + historyPage);
+    let retry = 0;
+    fetch(`/history?keys=${page.map(([key]) => key).join(",")}${channelQuery}`)
+        .then(response => response.ok ? response.text() : Promise.reject(response.status))
+        .then(text => {
+            if (!target.isConnected) return;
+            const html = new Map(text.split("\n").map(line => line.split(" ")));
+            const elements = [];
+            for (const [key] of page) {
+                if (!html.get(key)) continue; // no longer in the log
+                const element = document.createElement("div");
+                element.innerHTML = decoder.decode(Uint8Array.from(atob(html.get(key)), c => c.charCodeAt(0)));
+                element.dataset.key = key;
+                elements.push(element);
+            }
+            liveEntries += elements.length;
+            const rest = target.evicted.slice(start + page.length);
+            target.evicted = target.evicted.slice(0, start);
+            resize(target);
+            target.after(...elements);
+            if (rest.length > 0) newPlaceholder(rest, placeholder => (elements.at(-1) ?? target).after(placeholder));
+        })
+        .catch(error => {
+            console.error("fetching evicted entries failed:", error);
+            retry = 1000;
+        })
+        .finally(() => {
+            target.fetching = false;
+            evictedObserver.unobserve(target);
+            if (target.evicted.length === 0) target.remove();
+            else if (target.isConnected) // observed anew, it reports whether it is still near the viewport
+                setTimeout(() => target.isConnected && evictedObserver.observe(target), retry);
+            evict();
+        });
+}
+
+// WebSocket first: one connection for both directions, binary messages
+// `[u8 type][u64 id][body]`. Falls back to a binary `fetch` stream and then to SSE + POST.
+// Every transport resumes after `lastEventId` when it reconnects.
 function setUp() {
+    if (!window.WebSocket) {
+        setUpStream();
+        return;
+    }
+    fetch("/websocket")
+        .then(response => response.ok ? response.text() : Promise.reject(response.status))
+        .then(port => {
+            const socket = new WebSocket(`ws://${window.location.hostname}:${port.trim()}/?client=${clientId}${channelQuery}&lastEventId=${lastEventId}`);
+            socket.binaryType = "arraybuffer";
+            let opened = false;
+            socket.onopen = () => {
+                opened = true;
+                fragment = null;
+                Clerk.socket = socket;
+            };
+            socket.onmessage = (event) => {
+                const bytes = new Uint8Array(event.data);
+                receive(actions[bytes[0]], eventId(bytes), bytes.subarray(9));
+            };
+            socket.onclose = () => {
+                Clerk.socket = null;
+                if (opened) setTimeout(setUp, 1000); // reconnect
+                else setUpStream();
+            };
+        })
+        .catch(() => setUpStream());
+}
+
+function setUpStream() {
+    if (!window.ReadableStream) {
+        setUpEventSource();
+        return;
+    }
+    let received = false;
+    readBinaryStream(() => {
+        received = true;
+        fragment = null;
+    })
+        .catch(error => console.error("Binary event stream failed:", error))
+        .finally(() => {
+            if (received) setTimeout(setUp, 1000); // reconnect
+            else setUpEventSource();
+        });
+}
+
+function eventId(frame) { // u64 after the type, exact up to 2^53
+    const view = new DataView(frame.buffer, frame.byteOffset + 1, 8);
+    return view.getUint32(0) * 2 ** 32 + view.getUint32(4);
+}
+
+// `/events?format=binary` sends frames `[u32 length][u8 type][u64 id][body]` without
+// Base64. Each frame is copied exactly once, into a buffer of its final size.
+async function readBinaryStream(onConnect) {
+    const response = await fetch(`/events?format=binary&client=${clientId}${channelQuery}&lastEventId=${lastEventId}`);
+    if (!response.ok || !response.body) throw new Error("no binary stream: " + response.status);
+    onConnect();
+    const reader = response.body.getReader();
+    const header = new Uint8Array(4);
+    let headerFill = 0;
+    let frame = null;
+    let frameFill = 0;
+    while (true) {
+        const { value, done } = await reader.read();
+        if (done) return;
+        let pos = 0;
+        while (pos < value.length) {
+            if (frame === null) {
+                const n = Math.min(4 - headerFill, value.length - pos);
+                header.set(value.subarray(pos, pos + n), headerFill);
+                headerFill += n;
+                pos += n;
+                if (headerFill === 4) {
+                    frame = new Uint8Array(new DataView(header.buffer).getUint32(0));
+                    frameFill = 0;
+                    headerFill = 0;
+                }
+            } else {
+                const n = Math.min(frame.length - frameFill, value.length - pos);
+                frame.set(value.subarray(pos, pos + n), frameFill);
+                frameFill += n;
+                pos += n;
+            }
+            if (frame !== null && frameFill === frame.length) {
+                if (frame.length > 0) // an empty frame is a heartbeat
+                    receive(actions[frame[0]], eventId(frame), frame.subarray(9));
+                frame = null;
+            }
+        }
+    }
+}
+
+function setUpEventSource() {
     if (window.EventSource) {
-        const source = new EventSource("/events");
+        // reconnecting, the EventSource sends the `Last-Event-ID` header itself
+        const source = new EventSource(`/events?client=${clientId}${channelQuery}&lastEventId=${lastEventId}`);
 
+        // an event without an `id:` line (unlogged, interactive or a fragment) still reports
+        // the last id; it counts as id 0 and doesn't move the resume position
+        let previousId = Number(lastEventId);
+        source.onopen = () => fragment = null; // also when the EventSource reconnects
         source.onmessage = function(event) {
             const splitPos = event.data.indexOf(":");
             const action = event.data.slice(0, splitPos);
             const base64Data = event.data.slice(splitPos + 1);
-            const data = new TextDecoder("utf-8").decode(Uint8Array.from(atob(base64Data), c => c.charCodeAt(0)));
-            // const data = atob(base64Data);
-            // console.log(`Action: ${action}\n`);
-            // console.log(`Data: ${data}\n`);
-
-            switch (action) {
-                case "CALL": {
-                    Function(data).apply(); // https://www.educative.io/answers/eval-vs-function-in-javascript
-                    break;
-                }
-                case "SCRIPT": {
-                    const newElement = document.createElement("script");
-                    newElement.innerHTML = data;
-                    document.body.appendChild(newElement);
-                    break;
-                }
-                case "WRITE": {
-                    const newElement = document.createElement("div");
-                    newElement.innerHTML = data;
-                    document.getElementById("events").appendChild(newElement);
-                    break;
-                }
-                case "LOAD": {
-                    loadedDiv.style.display = 'block';
-                    setTimeout(() => {
-                        loadedDiv.style.display = 'none';
-                    }, 300);
-                    var srcs = data.split(',');
-                    srcs = srcs.map(src => src.trim());
-                    if (srcs.length >= 2) loadScriptWithFallback(srcs[0], srcs[1]);
-                    else loadScript(data);
-                    break;
-                }
-                case "CLEAR": {
-                    const element = document.getElementById("events");
-                    while (element.firstChild) {
-                        element.removeChild(element.firstChild);
-                    }
-
-                    const toRemove = [];
-                    for (const node of document.body.children) {
-                        if (node.classList == null || !node.classList.contains("persistent")) {
-                            toRemove.push(node);
-                        }
-                    }
-                    toRemove.forEach(x => document.body.removeChild(x));
-
-                    break;
-                }
-                case "RELEASE":
-                    locks = locks.filter(lock => lock !== data);
-                    break;
-                default:
-                    console.log("Unknown Action");
-                    break;
-            }
+            const id = Number(event.lastEventId);
+            receive(action, id !== previousId ? id : 0, Uint8Array.from(atob(base64Data), c => c.charCodeAt(0)));
+            previousId = id;
         };
 
         source.onerror = function(error) {
@@ -102,8 +622,36 @@ function setUp() {
     }
 }
 
-const Clerk = {}; // not used, yet
-let locks = [];
-setUp();
+// Views send their input through `Clerk.post`, which uses the WebSocket when it is open.
+// The body is a string, or an ArrayBuffer or typed array for binary input.
+const Clerk = {
+    socket: null,
+    locks: new Set(), // ids of inputs waiting for a RELEASE, see `LiveView.createResponseContext`
+    tracing: false, // switched by the server, see `LiveView.setTracing`
+    scrollback: 1000, // entries kept in the page, 0: all, see `LiveView.setScrollback`
+    setScrollback(entries) {
+        Clerk.scrollback = entries;
+        evict();
+    },
+    post(path, body = "") {
+        if (exported) return Promise.resolve(); // no server behind a static export
+        if (!path.startsWith("/")) path = "/" + path;
+        if (Clerk.socket && Clerk.socket.readyState === WebSocket.OPEN) {
+            Clerk.socket.send(typeof body === "string" ? path + "\n" + body : new Blob([path + "\n", body]));
+            return Promise.resolve();
+        }
+        return fetch(channel ? path + "?" + channelQuery.slice(1) : path, { method: "post", body: body });
+    }
+};
+window.Clerk = Clerk;
+if (exported) {
+    // `TYPE:<base64 body>`, as in SSE, replayed once
+    for (const event of JSON.parse(exported.textContent)) {
+        const splitPos = event.indexOf(":");
+        receive(event.slice(0, splitPos), 0, Uint8Array.from(atob(event.slice(splitPos + 1)), c => c.charCodeAt(0)));
+    }
+} else {
+    setUp();
+}
 
 // https://samthor.au/2020/understanding-load/
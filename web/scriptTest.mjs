@@ -0,0 +1,108 @@
+// run: node web/scriptTest.mjs
+// script.js in Node with just enough of a browser around it: the WebSocket is driven by
+// the test, queued events run on the next timer tick instead of an animation frame.
+import assert from "node:assert/strict";
+import fs from "node:fs";
+
+const sockets = [];
+globalThis.window = globalThis;
+globalThis.location = { search: "", hostname: "localhost" };
+globalThis.WebSocket = class { static OPEN = 1; constructor(url) { this.url = url; sockets.push(this); } send() {} };
+globalThis.fetch = () => Promise.resolve({ ok: true, text: () => Promise.resolve("50002") });
+globalThis.requestAnimationFrame = callback => setTimeout(callback, 0);
+globalThis.document = { hidden: false, addEventListener() {}, getElementById: () => null, body: { appendChild() {} } };
+
+const source = fs.readFileSync(new URL("script.js", import.meta.url), "utf8")
+    .replace(/^import .*$/m, "").replace(/^window\.(glMatrix|mat4|quat|vec3) = .*$/gm, "");
+await import("data:text/javascript," + encodeURIComponent(source));
+
+const actions = ["WRITE", "CALL", "SCRIPT", "LOAD", "CLEAR", "RELEASE", "DATA", "BATCH", "PATCH", "DEFINE", "COMMAND", "FRAGMENT", "ACK"];
+const encoder = new TextEncoder();
+const tick = millis => new Promise(resolve => setTimeout(resolve, millis));
+
+// a WebSocket message `[u8 type][u64 id][body]`
+function message(action, id, body) {
+    const bytes = new Uint8Array(9 + body.length);
+    bytes[0] = actions.indexOf(action);
+    new DataView(bytes.buffer).setBigUint64(1, BigInt(id));
+    bytes.set(body, 9);
+    return { data: bytes.buffer };
+}
+
+// a FRAGMENT body `[u8 type][u32 total length][u32 offset][part]`
+function fragment(action, whole, offset, length) {
+    const bytes = new Uint8Array(9 + length);
+    const view = new DataView(bytes.buffer);
+    bytes[0] = actions.indexOf(action);
+    view.setUint32(1, whole.length);
+    view.setUint32(5, offset);
+    bytes.set(whole.subarray(offset, offset + length), 9);
+    return bytes;
+}
+
+async function connect() {
+    while (sockets.length === 0 || sockets.at(-1).onopen === undefined || sockets.at(-1).opened) await tick(10);
+    const socket = sockets.at(-1);
+    socket.opened = true;
+    socket.onopen();
+    return socket;
+}
+
+// A reconnect in the middle of a fragmented event: the server sends it again from the
+// start, the fragments of the closed connection are thrown away.
+const large = encoder.encode(`globalThis.large = "${"x".repeat(100_000)}";`);
+const split = 65_536;
+let socket = await connect();
+socket.onmessage(message("FRAGMENT", 0, fragment("CALL", large, 0, split)));
+socket.onclose();
+socket = await connect();
+assert.match(socket.url, /lastEventId=0/);
+socket.onmessage(message("FRAGMENT", 0, fragment("CALL", large, split, large.length - split))); // no start: lost
+socket.onmessage(message("FRAGMENT", 0, fragment("CALL", large, 0, split)));
+socket.onmessage(message("CALL", 0, encoder.encode("globalThis.interactive = true;")));
+socket.onmessage(message("FRAGMENT", 7, fragment("CALL", large, split, large.length - split)));
+socket.onmessage(message("CALL", 8, encoder.encode("globalThis.next = 8;")));
+await tick(20);
+assert.equal(globalThis.interactive, true);
+assert.equal(globalThis.large, "x".repeat(100_000));
+assert.equal(globalThis.next, 8); // later frames are still in step
+
+// the same without a new connection: a fragment at offset 0 starts the event anew
+socket.onmessage(message("FRAGMENT", 0, fragment("CALL", large, 0, split)));
+globalThis.large = null;
+socket.onmessage(message("FRAGMENT", 0, fragment("CALL", large, 0, split)));
+socket.onmessage(message("FRAGMENT", 9, fragment("CALL", large, split, large.length - split)));
+await tick(20);
+assert.equal(globalThis.large, "x".repeat(100_000));
+
+// A run of CALLs in a BATCH: a `return` or an error in one call doesn't skip the others
+function batch(...calls) {
+    const parts = calls.map(call => encoder.encode(call));
+    const bytes = new Uint8Array(parts.reduce((sum, part) => sum + 5 + part.length, 0));
+    const view = new DataView(bytes.buffer);
+    let pos = 0;
+    for (const part of parts) {
+        bytes[pos] = actions.indexOf("CALL");
+        view.setUint32(pos + 1, part.length);
+        bytes.set(part, pos + 5);
+        pos += 5 + part.length;
+    }
+    return bytes;
+}
+const errors = [];
+const consoleError = console.error;
+console.error = error => errors.push(error);
+globalThis.order = [];
+socket.onmessage(message("BATCH", 10, batch("order.push(1); return; order.push(-1);", "order.push(2);",
+    "throw new Error('in a call');", "var local = 3; order.push(local); // a comment at the end")));
+await tick(20);
+console.error = consoleError;
+assert.deepEqual(globalThis.order, [1, 2, 3]);
+assert.equal(errors.length, 1);
+assert.equal(globalThis.local, undefined); // each call has its own scope
+
+socket.onclose();
+socket = await connect();
+assert.match(socket.url, /lastEventId=10/);
+console.log("script.js: all tests passed");
+process.exit(0);